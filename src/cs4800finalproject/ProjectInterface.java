@@ -18,7 +18,13 @@
 package cs4800finalproject; // this project package
 import projectutilities.*;  // and a toolbox for it
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.concurrent.Future;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Scanner;
 import java.io.File;
 
@@ -53,6 +59,7 @@ public class ProjectInterface {
     private static final String SSTC_DIRECTORY = FILES + "StandfordSpeechTaggerAndCounter/";
     private static final String TAGGER_TESTING = SSTC_DIRECTORY + "_TagTesting.txt";
     private static final String TESTING_REPORT = SSTC_DIRECTORY + "_TestCount.txt";
+    private static final String TAG_CACHE = SSTC_DIRECTORY + "_TagCache.bin";
     //
     private static final String TAGGED_OBJECTS = SSTC_DIRECTORY + "objects/";
     private static final String TAGGED_WOMEN = SSTC_DIRECTORY + "women/";
@@ -69,12 +76,16 @@ public class ProjectInterface {
      * |--> StandfordSpeechTaggerAndCounter/    SSTC_DIRECTORY
      * |  |--> _TagTesting.txt                  TAGGER_TESTING
      * |  |--> _TestCount.txt                   TESTING_REPORT
+     * |  |--> _TagCache.bin                    TAG_CACHE
      * |  |--> objects/                         TAGGED_OBJECTS
      * |  |  |--> _objects.txt                  OBJECTS_REPORT
+     * |  |  |--> segment-*.tagged, segments.index  (tagged texts)
      * |  |--> women/                           TAGGED_WOMEN
      * |  |  |--> _women.txt                    WOMENS_REPORT
+     * |  |  |--> segment-*.tagged, segments.index  (tagged texts)
      * |  |--> men/                             TAGGED_MEN
      * |  |  |--> _men.txt                      MENS_REPORT
+     * |  |  |--> segment-*.tagged, segments.index  (tagged texts)
      * END
      */
     /**************************************************************************/
@@ -90,6 +101,9 @@ public class ProjectInterface {
     }
     
     private static void parseAndTagProcessedExportTexts() {
+        SSTC.preloadTagger(true); // loads while the processed exports are opened
+        SSTC.setThreadCount(Runtime.getRuntime().availableProcessors());
+        SSTC.setTagCache(TAG_CACHE, 1 << 16); // reruns look up unchanged texts
         String[] processedExports = new File(XMLOUT_FILES).list();
         if (processedExports == null || processedExports.length == 0) {
             // the directory is empty of does not exist, this is a fatal error
@@ -106,60 +120,90 @@ public class ProjectInterface {
                 System.exit(4);
             } else {
                 System.err.println("Parsing and Tagging @ " + XMLOUT_TEST);
-                ArrayList<String> texts = WSEP.getTextsFromProcessedExport(XMLOUT_TEST);
-                StringBuilder builder = new StringBuilder();
-                for (String text : texts) {
-                    builder.append(text);
-                    builder.append(' ');
+                try (Stream<String> texts = WSEP.streamTextsFromProcessedExport(XMLOUT_TEST)) {
+                    // tagged as they are read, instead of joined into one string
+                    SSTC.tagTextsAndWriteFile(texts.iterator(), TAGGER_TESTING);
                 }
-                SSTC.tagTextAndWriteFile(builder.toString(), TAGGER_TESTING);
                 SSTC.writeReport(TESTING_REPORT);
                 SSTC.resetWordCount(); // clear the report data
                 System.err.println("Parsing/Tagging Complete -> " + TAGGER_TESTING);
             }
         } else {
+            // every class is tagged at the same time, into counts of its own
+            ExecutorService pool = Executors.newCachedThreadPool();
+            ArrayList<Future<?>> classes = new ArrayList<>();
+            HashSet<String> types = new HashSet<>();
             for (String processed : processedExports) {
                 if (!XMLOUT_TEST.endsWith(processed)) {
-                    processed = XMLOUT_FILES + processed; // prepend file path
-                    System.err.println("Parsing and Tagging @ " + processed);
-                    ArrayList<String> texts = WSEP.getTextsFromProcessedExport(processed);
+                    String path = XMLOUT_FILES + processed; // prepend file path
                     String processedType = determineFilesType(processed);
-                    switch (processedType) {
+                    String dir, report;
+                    switch (processedType == null ? "" : processedType) {
                         case "objects": { 
-                            tagAndSaveTexts(texts, TAGGED_OBJECTS);
-                            SSTC.writeReport(OBJECTS_REPORT);
-                            SSTC.resetWordCount();
+                            dir = TAGGED_OBJECTS;
+                            report = OBJECTS_REPORT;
                             break;
                         }
                         case "women" : {
-                            tagAndSaveTexts(texts, TAGGED_WOMEN);
-                            SSTC.writeReport(WOMENS_REPORT);
-                            SSTC.resetWordCount();
+                            dir = TAGGED_WOMEN;
+                            report = WOMENS_REPORT;
                             break;
                         }
                         case "men": {
-                            tagAndSaveTexts(texts, TAGGED_MEN);
-                            SSTC.writeReport(MENS_REPORT);
-                            SSTC.resetWordCount();
+                            dir = TAGGED_MEN;
+                            report = MENS_REPORT;
                             break;
                         }
                         default: {
                             System.err.print("ERR: XML File Not Parsed: ");
                             System.err.println(EXPORT_FILES + processed);
+                            continue;
                         }
                     }
+                    if (!types.add(processedType)) {
+                        // would share the segment directory and counts of the first
+                        System.err.print("ERR: Second " + processedType + " XML File Not Parsed: ");
+                        System.err.println(path);
+                        continue;
+                    }
+                    classes.add(pool.submit(() -> tagAndSaveTexts(path, processedType, dir, report)));
+                }
+            }
+            pool.shutdown();
+            boolean failed = false;
+            for (Future<?> tagging : classes) {
+                try {
+                    tagging.get();
+                } catch (ExecutionException ex) {
+                    failed = true;
+                    System.err.println("ERR @ parseAndTagProcessedExportTexts");
+                    System.err.println("ERR: " + ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    pool.shutdownNow();
+                    System.err.println("ERR @ parseAndTagProcessedExportTexts: interrupted");
+                    return;
                 }
             }
+            if (failed) {
+                SSTC.closeTagCache();
+                System.err.println("FATAL ERROR: Exiting Program !");
+                System.exit(5);
+            }
         }
+        SSTC.closeTagCache();
+        System.err.println(SSTC.getTaggerMetrics());
     }
     
-    private static void tagAndSaveTexts(ArrayList<String> texts, String dir) {
-        for (int i = 0; i < texts.size(); i++) {
-            String fileName = Integer.toString(i); // all filenames same length
-            while (fileName.length() < 7) fileName = '0' + fileName;
-            fileName = dir + fileName;
-            SSTC.tagTextAndWriteFile(texts.get(i), fileName);
+    private static void tagAndSaveTexts(String processed, String type, String dir, String report) {
+        System.err.println("Parsing and Tagging @ " + processed);
+        try (Stream<String> texts = WSEP.streamTextsFromProcessedExport(processed)) {
+            // packed into a segment store, not a file per text
+            SSTC.tagTextsAndWriteSegments(texts.iterator(), dir, type);
         }
+        SSTC.writeReport(report, type);
+        SSTC.resetWordCount(type);
+        System.err.println("Parsing/Tagging Complete -> " + report);
     }
     
     private static void initWikipediaSpecialExportProcessor() {
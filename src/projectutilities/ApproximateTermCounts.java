@@ -0,0 +1,314 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.HashMap;
+import java.util.Arrays;
+
+/**
+ * ApproximateTermCounts - term counts in a fixed amount of memory.
+ * 
+ * Every term is counted in a Count-Min Sketch: depth rows of width counters,
+ * a term adding its count to one counter of every row, and its estimate being
+ * the smallest of its counters. An estimate is never below the true count, and
+ * is over it by at most epsilon times the total count, with a probability of
+ * at least 1 - delta, for a width of e / epsilon and a depth of ln(1 / delta).
+ * 
+ * Next to the sketch, the heavy hitters (the most frequent terms) are tracked
+ * by Space-Saving: a fixed number of monitored terms, kept in a min-heap by
+ * count, an unmonitored term taking over the slot of the least counted one.
+ * Every term counted more than total / heavyHitters times is monitored, so the
+ * heavy hitters are the terms that are reported, with the smaller of the two
+ * overestimates as their count.
+ * 
+ * The terms are split the same way as by TaggedTermCounts. Not thread safe,
+ * every tagging thread counts into its own counts, which are summed by addAll.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class ApproximateTermCounts {
+
+    private final double epsilon;
+    private final double delta;
+    private final int width;
+    private final int depth;
+    private final long[] sketch;        // depth rows of width counters
+
+    private final String[] terms;       // the monitored terms, a min-heap by count
+    private final long[] counts;
+    private final HashMap<String, Integer> slots = new HashMap<>();
+    private int monitored;
+
+    private long total;
+
+    /**
+     * @param epsilon the error of an estimate, as a fraction of the total count
+     * @param delta the probability of an estimate being off by more than that
+     * @param heavyHitters number of the most frequent terms that are tracked
+     */
+    ApproximateTermCounts(double epsilon, double delta, int heavyHitters) {
+        check(epsilon, delta, heavyHitters);
+        this.epsilon = epsilon;
+        this.delta = delta;
+        width = (int) Math.ceil(Math.E / epsilon);
+        depth = (int) Math.ceil(Math.log(1 / delta));
+        sketch = new long[width * depth];
+        terms = new String[heavyHitters];
+        counts = new long[heavyHitters];
+    }
+
+    /**
+     * Checks the parameters of the counts.
+     * 
+     * @param epsilon
+     * @param delta
+     * @param heavyHitters
+     * @throws IllegalArgumentException if the counts cannot be made with them
+     */
+    static void check(double epsilon, double delta, int heavyHitters) {
+        if (epsilon <= 0 || epsilon >= 1 || delta <= 0 || delta >= 1 || heavyHitters < 1) {
+            throw new IllegalArgumentException("epsilon and delta must be in (0, 1), "
+                    + "and at least one heavy hitter tracked");
+        }
+    }
+
+    double epsilon() {
+        return epsilon;
+    }
+
+    double delta() {
+        return delta;
+    }
+
+    int heavyHitterCapacity() {
+        return terms.length;
+    }
+
+    /**
+     * Counts every term of a tagged text.
+     * 
+     * @param tagged the output of the tagger
+     */
+    void countTagged(String tagged) {
+        int length = tagged.length();
+        while (length > 0 && tagged.charAt(length - 1) == ' ') length--;
+        if (length == 0) {
+            if (tagged.isEmpty()) add("", 1); // as split does
+            return;
+        }
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || tagged.charAt(i) == ' ') {
+                add(tagged.substring(start, i), 1);
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Counts a term.
+     * 
+     * @param term
+     * @param count
+     */
+    void add(String term, long count) {
+        long hash = hash(term);
+        for (int row = 0; row < depth; row++) {
+            sketch[row * width + column(hash, row)] += count;
+        }
+        total += count;
+        monitor(term, count, true);
+    }
+
+    /**
+     * Estimates the count of a term, never below its true count.
+     * 
+     * @param term
+     * @return 
+     */
+    long estimate(String term) {
+        long hash = hash(term);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, sketch[row * width + column(hash, row)]);
+        }
+        Integer slot = slots.get(term);
+        return (slot == null) ? estimate : Math.min(estimate, counts[slot]);
+    }
+
+    /**
+     * Returns the sum of every count, which is exact.
+     * 
+     * @return 
+     */
+    long total() {
+        return total;
+    }
+
+    /**
+     * Returns how far over its true count an estimate may be (with probability
+     * 1 - delta), epsilon times the total count.
+     * 
+     * @return 
+     */
+    long errorBound() {
+        return (long) Math.ceil(epsilon * total);
+    }
+
+    /**
+     * Returns the probability of an estimate being over by more than the bound.
+     * 
+     * @return 
+     */
+    double confidence() {
+        return 1 - delta;
+    }
+
+    /**
+     * Adds the counts of another table, of the same epsilon, delta and number
+     * of heavy hitters, to these counts.
+     * 
+     * @param other
+     */
+    void addAll(ApproximateTermCounts other) {
+        if (other.width != width || other.depth != depth
+                || other.terms.length != terms.length) {
+            throw new IllegalArgumentException("the counts are of different sizes");
+        }
+        for (int i = 0; i < sketch.length; i++) {
+            sketch[i] += other.sketch[i];
+        }
+        total += other.total;
+        // the heavy hitters of either are counted again from the summed sketch
+        String[] candidates = Arrays.copyOf(terms, monitored + other.monitored);
+        System.arraycopy(other.terms, 0, candidates, monitored, other.monitored);
+        Arrays.fill(terms, null);
+        slots.clear();
+        monitored = 0;
+        for (String term : candidates) {
+            if (!slots.containsKey(term)) monitor(term, estimate(term), false);
+        }
+    }
+
+    /**
+     * The Space-Saving update, an unmonitored term takes over the slot of the
+     * least counted term, either inheriting its count (as an upper bound of the
+     * count of the new term), or, when merging, only if it is counted more.
+     */
+    private void monitor(String term, long count, boolean inherit) {
+        Integer slot = slots.get(term);
+        if (slot != null) {
+            counts[slot] += count;
+            siftDown(slot);
+        } else if (monitored < terms.length) {
+            terms[monitored] = term;
+            counts[monitored] = count;
+            slots.put(term, monitored);
+            siftUp(monitored++);
+        } else if (inherit || count > counts[0]) {
+            slots.remove(terms[0]);
+            terms[0] = term;
+            counts[0] = inherit ? counts[0] + count : count;
+            slots.put(term, 0);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Hands the heavy hitters, with their estimated counts, to the consumer.
+     * 
+     * @param consumer
+     */
+    void forEachHeavyHitter(TaggedTermCounts.TermConsumer consumer) {
+        for (int i = 0; i < monitored; i++) {
+            long estimate = estimate(terms[i]);
+            consumer.accept(terms[i], (int) Math.min(Integer.MAX_VALUE, estimate));
+        }
+    }
+
+    /**
+     * Returns the number of terms tracked as heavy hitters.
+     * 
+     * @return 
+     */
+    int heavyHitterCount() {
+        return monitored;
+    }
+
+    /**
+     * Clears all of the counts.
+     */
+    void clear() {
+        Arrays.fill(sketch, 0);
+        Arrays.fill(terms, null);
+        Arrays.fill(counts, 0);
+        slots.clear();
+        monitored = 0;
+        total = 0;
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the term, the two halves seed the rows.
+     */
+    private static long hash(String term) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < term.length(); i++) {
+            hash = (hash ^ term.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private int column(long hash, int row) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return Math.floorMod(h1 + row * h2, width);
+    }
+
+    private void siftUp(int slot) {
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (counts[parent] <= counts[slot]) return;
+            swap(slot, parent);
+            slot = parent;
+        }
+    }
+
+    private void siftDown(int slot) {
+        while (true) {
+            int child = 2 * slot + 1;
+            if (child >= monitored) return;
+            if (child + 1 < monitored && counts[child + 1] < counts[child]) child++;
+            if (counts[slot] <= counts[child]) return;
+            swap(slot, child);
+            slot = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String term = terms[a];
+        terms[a] = terms[b];
+        terms[b] = term;
+        long count = counts[a];
+        counts[a] = counts[b];
+        counts[b] = count;
+        slots.put(terms[a], a);
+        slots.put(terms[b], b);
+    }
+}
@@ -0,0 +1,393 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.EOFException;
+
+/**
+ * BZip2InputStream - a (pure java) decompressing stream for bzip2 data.
+ * 
+ * Wikipedia ships its dumps as .xml.bz2 files and the jdk has no bzip2 codec,
+ * so this is a small decoder for the format: huffman/mtf decoding, the inverse
+ * Burrows-Wheeler transform and the final run length decoding, with the block
+ * and stream CRCs verified. Concatenated streams (as written by pbzip2, and as
+ * found in the multistream dumps) are decoded one after the other.
+ * 
+ * Blocks using the obsolete randomised mode (bzip2 0.9.0 and older) are not
+ * supported and are reported as an IOException.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class BZip2InputStream extends InputStream {
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_MAGIC = 0x177245385090L;
+    private static final int MAX_GROUPS = 6;
+    private static final int MAX_ALPHA_SIZE = 258;
+    private static final int MAX_CODE_LENGTH = 20;
+    private static final int MAX_SELECTORS = 18002;
+    private static final int GROUP_SIZE = 50;
+    private static final int RUNA = 0;
+    private static final int RUNB = 1;
+
+    private static final int[] CRC_TABLE = new int[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 24;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc < 0) ? (crc << 1) ^ 0x04c11db7 : crc << 1;
+            }
+            CRC_TABLE[i] = crc;
+        }
+    }
+
+    private final InputStream input;
+
+    // the bit reader over the compressed input
+    private long bitBuffer;
+    private int bitCount;
+
+    // the stream being decoded
+    private boolean streamOpen;
+    private boolean finished;
+    private int blockSize;
+    private int streamCRC;
+
+    // the inverse Burrows-Wheeler transform of the current block
+    private int[] tt;
+    private int tPos;
+    private int remaining;      // symbols of the block not yet taken from tt
+    private int blockCRC;
+    private int expectedBlockCRC;
+
+    // the final run length decoding of the current block
+    private int lastByte = -1;
+    private int runLength;
+    private int repeat;
+
+    // decoding tables, reused for every block
+    private final boolean[] inUse = new boolean[256];
+    private final byte[] seqToUnseq = new byte[256];
+    private final byte[] selectors = new byte[MAX_SELECTORS];
+    private final byte[][] lengths = new byte[MAX_GROUPS][MAX_ALPHA_SIZE];
+    private final int[][] limit = new int[MAX_GROUPS][MAX_CODE_LENGTH + 2];
+    private final int[][] base = new int[MAX_GROUPS][MAX_CODE_LENGTH + 2];
+    private final int[][] perm = new int[MAX_GROUPS][MAX_ALPHA_SIZE];
+    private final int[] minLength = new int[MAX_GROUPS];
+    private final int[] counts = new int[256];
+
+    private final byte[] single = new byte[1];
+
+    /**
+     * @param input the bzip2 compressed data, should be a buffered stream
+     */
+    BZip2InputStream(InputStream input) {
+        this.input = input;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = read(single, 0, 1);
+        return (n == -1) ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        int written = 0;
+        while (written < length) {
+            if (repeat > 0) {
+                buffer[offset + written++] = (byte) lastByte;
+                blockCRC = (blockCRC << 8) ^ CRC_TABLE[(blockCRC >>> 24) ^ lastByte];
+                repeat--;
+                continue;
+            }
+            if (remaining == 0) {
+                if (written > 0) break; // hand out what we have before blocking
+                if (!nextBlock()) return -1;
+                continue;
+            }
+            tPos = tt[tPos];
+            int b = tPos & 0xff;
+            tPos >>>= 8;
+            remaining--;
+            if (runLength == 4) {
+                repeat = b;     // the fifth symbol of a run is its extra length
+                runLength = 0;
+                continue;
+            }
+            runLength = (runLength > 0 && b == lastByte) ? runLength + 1 : 1;
+            lastByte = b;
+            buffer[offset + written++] = (byte) b;
+            blockCRC = (blockCRC << 8) ^ CRC_TABLE[(blockCRC >>> 24) ^ b];
+        }
+        return written;
+    }
+
+    /**
+     * Finishes the current block and decodes the next one, moving on to the
+     * next stream when the current stream ends.
+     * 
+     * @return false when there is no more data
+     */
+    private boolean nextBlock() throws IOException {
+        if (finished) return false;
+        if (streamOpen) {
+            if (~blockCRC != expectedBlockCRC) throw new IOException("bzip2 block CRC error");
+            streamCRC = ((streamCRC << 1) | (streamCRC >>> 31)) ^ expectedBlockCRC;
+        }
+        while (true) {
+            if (!streamOpen && !openStream()) {
+                finished = true;
+                return false;
+            }
+            long magic = readBits(48);
+            if (magic == BLOCK_MAGIC) {
+                readBlock();
+                return true;
+            } else if (magic == END_MAGIC) {
+                if (readBits(32) != (streamCRC & 0xffffffffL)) {
+                    throw new IOException("bzip2 stream CRC error");
+                }
+                bitCount -= bitCount % 8; // streams start on a byte boundary
+                streamOpen = false;
+            } else {
+                throw new IOException("bzip2 block header expected");
+            }
+        }
+    }
+
+    /**
+     * Reads the header of the next stream, if there is one.
+     */
+    private boolean openStream() throws IOException {
+        int b = readByteOrEOF();
+        if (b == -1) return false;
+        if (b != 'B' || readBits(8) != 'Z' || readBits(8) != 'h') {
+            if (tt == null) throw new IOException("not bzip2 data");
+            return false; // trailing data after the last stream is ignored
+        }
+        int level = (int) readBits(8) - '0';
+        if (level < 1 || level > 9) throw new IOException("bad bzip2 block size");
+        if (tt == null || blockSize != level * 100000) {
+            blockSize = level * 100000;
+            tt = new int[blockSize];
+        }
+        streamCRC = 0;
+        streamOpen = true;
+        return true;
+    }
+
+    private void readBlock() throws IOException {
+        expectedBlockCRC = (int) readBits(32);
+        if (readBits(1) != 0) throw new IOException("randomised bzip2 blocks are not supported");
+        int origPtr = (int) readBits(24);
+        //
+        // the symbols used in the block
+        int nInUse = 0;
+        int used = (int) readBits(16);
+        for (int i = 0; i < 16; i++) {
+            if ((used & (0x8000 >>> i)) != 0) {
+                int bits = (int) readBits(16);
+                for (int j = 0; j < 16; j++) {
+                    inUse[i * 16 + j] = (bits & (0x8000 >>> j)) != 0;
+                }
+            } else {
+                for (int j = 0; j < 16; j++) inUse[i * 16 + j] = false;
+            }
+        }
+        for (int i = 0; i < 256; i++) {
+            if (inUse[i]) seqToUnseq[nInUse++] = (byte) i;
+        }
+        if (nInUse == 0) throw new IOException("bzip2 block has no symbols");
+        int alphaSize = nInUse + 2;
+        //
+        // the huffman table selectors, move-to-front coded
+        int nGroups = (int) readBits(3);
+        if (nGroups < 2 || nGroups > MAX_GROUPS) throw new IOException("bad bzip2 group count");
+        int nSelectors = (int) readBits(15);
+        if (nSelectors < 1) throw new IOException("bad bzip2 selector count");
+        byte[] mtfGroups = {0, 1, 2, 3, 4, 5};
+        for (int i = 0; i < nSelectors; i++) {
+            int j = 0;
+            while (readBits(1) == 1) {
+                if (++j >= nGroups) throw new IOException("bad bzip2 selector");
+            }
+            byte group = mtfGroups[j];
+            for (; j > 0; j--) mtfGroups[j] = mtfGroups[j - 1];
+            mtfGroups[0] = group;
+            if (i < MAX_SELECTORS) selectors[i] = group;
+        }
+        nSelectors = Math.min(nSelectors, MAX_SELECTORS);
+        //
+        // the code lengths of the huffman tables, delta coded
+        for (int t = 0; t < nGroups; t++) {
+            int current = (int) readBits(5);
+            for (int i = 0; i < alphaSize; i++) {
+                while (true) {
+                    if (current < 1 || current > MAX_CODE_LENGTH) {
+                        throw new IOException("bad bzip2 code length");
+                    }
+                    if (readBits(1) == 0) break;
+                    current += (readBits(1) == 0) ? 1 : -1;
+                }
+                lengths[t][i] = (byte) current;
+            }
+            createDecodeTable(t, alphaSize);
+        }
+        //
+        // the move-to-front coded symbols, with RUNA/RUNB coded runs
+        byte[] mtf = new byte[256];
+        for (int i = 0; i < 256; i++) mtf[i] = (byte) i;
+        for (int i = 0; i < 256; i++) counts[i] = 0;
+        int endOfBlock = nInUse + 1;
+        int groupIndex = -1;
+        int groupLeft = 0;
+        int group = 0;
+        int nblock = 0;
+        int runTotal = 0;
+        int runWeight = 1;
+        while (true) {
+            if (groupLeft == 0) {
+                if (++groupIndex >= nSelectors) throw new IOException("bzip2 selector overflow");
+                group = selectors[groupIndex];
+                groupLeft = GROUP_SIZE;
+            }
+            groupLeft--;
+            int symbol = decodeSymbol(group);
+            if (symbol == RUNA || symbol == RUNB) {
+                runTotal += (symbol + 1) * runWeight;
+                runWeight <<= 1;
+                if (runTotal > blockSize) throw new IOException("bzip2 run overflow");
+                continue;
+            }
+            if (runTotal > 0) {
+                if (nblock + runTotal > blockSize) throw new IOException("bzip2 block overflow");
+                int b = seqToUnseq[mtf[0] & 0xff] & 0xff;
+                counts[b] += runTotal;
+                while (runTotal-- > 0) tt[nblock++] = b;
+                runTotal = 0;
+                runWeight = 1;
+            }
+            if (symbol == endOfBlock) break;
+            if (nblock >= blockSize) throw new IOException("bzip2 block overflow");
+            int index = symbol - 1;
+            byte value = mtf[index];
+            System.arraycopy(mtf, 0, mtf, 1, index);
+            mtf[0] = value;
+            int b = seqToUnseq[value & 0xff] & 0xff;
+            counts[b]++;
+            tt[nblock++] = b;
+        }
+        if (origPtr >= nblock) throw new IOException("bad bzip2 origin pointer");
+        //
+        // the inverse Burrows-Wheeler transform, the links are kept in tt
+        int sum = 0;
+        for (int i = 0; i < 256; i++) {
+            int count = counts[i];
+            counts[i] = sum;
+            sum += count;
+        }
+        for (int i = 0; i < nblock; i++) {
+            int b = tt[i] & 0xff;
+            tt[counts[b]++] |= i << 8;
+        }
+        tPos = tt[origPtr] >>> 8;
+        remaining = nblock;
+        blockCRC = 0xffffffff;
+        lastByte = -1;
+        runLength = 0;
+        repeat = 0;
+    }
+
+    /**
+     * Builds the canonical huffman decoding tables (limit, base and perm) of
+     * the given group from its code lengths.
+     */
+    private void createDecodeTable(int t, int alphaSize) {
+        byte[] length = lengths[t];
+        int min = MAX_CODE_LENGTH;
+        int max = 0;
+        for (int i = 0; i < alphaSize; i++) {
+            min = Math.min(min, length[i]);
+            max = Math.max(max, length[i]);
+        }
+        int pp = 0;
+        for (int i = min; i <= max; i++) {
+            for (int j = 0; j < alphaSize; j++) {
+                if (length[j] == i) perm[t][pp++] = j;
+            }
+        }
+        int[] b = base[t];
+        int[] l = limit[t];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = 0;
+            l[i] = -1;
+        }
+        for (int i = 0; i < alphaSize; i++) b[length[i] + 1]++;
+        for (int i = 1; i < b.length; i++) b[i] += b[i - 1];
+        int vec = 0;
+        for (int i = min; i <= max; i++) {
+            vec += b[i + 1] - b[i];
+            l[i] = vec - 1;
+            vec <<= 1;
+        }
+        for (int i = min + 1; i <= max; i++) {
+            b[i] = ((l[i - 1] + 1) << 1) - b[i];
+        }
+        minLength[t] = min;
+    }
+
+    private int decodeSymbol(int group) throws IOException {
+        int[] l = limit[group];
+        int n = minLength[group];
+        int code = (int) readBits(n);
+        while (code > l[n]) {
+            if (++n > MAX_CODE_LENGTH) throw new IOException("bad bzip2 huffman code");
+            code = (code << 1) | (int) readBits(1);
+        }
+        int index = code - base[group][n];
+        if (index < 0 || index >= MAX_ALPHA_SIZE) throw new IOException("bad bzip2 huffman code");
+        return perm[group][index];
+    }
+
+    private long readBits(int n) throws IOException {
+        while (bitCount < n) {
+            int b = input.read();
+            if (b == -1) throw new EOFException("unexpected end of bzip2 data");
+            bitBuffer = (bitBuffer << 8) | b;
+            bitCount += 8;
+        }
+        bitCount -= n;
+        return (bitBuffer >>> bitCount) & ((1L << n) - 1);
+    }
+
+    private int readByteOrEOF() throws IOException {
+        if (bitCount >= 8) return (int) readBits(8);
+        return input.read();
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
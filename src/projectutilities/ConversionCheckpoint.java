@@ -0,0 +1,125 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.file.StandardCopyOption;
+import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.util.Properties;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.io.File;
+
+/**
+ * ConversionCheckpoint - the progress of a conversion, saved next to its output.
+ * 
+ * A checkpoint records how many pages of the export have been read, and how
+ * many bytes of the output held those pages when the output was last flushed.
+ * A conversion that died can then truncate its output back to that length and
+ * continue after that many pages, instead of starting over from the beginning.
+ * 
+ * The checkpoint of "out.xml" is the properties file "out.xml.checkpoint".
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class ConversionCheckpoint {
+
+    private static final String SUFFIX = ".checkpoint";
+
+    String export;          // path of the export being converted
+    long exportLength;      // size of the export, to detect a different export
+    long pagesRead;         // pages of the export read (written or filtered out)
+    long pagesWritten;      // pages written to the output
+    long outputLength;      // bytes of the output holding the written pages
+    String lastTitle = "";  // title of the last page written
+
+    /**
+     * Loads the checkpoint of the output, if there is one for the same export.
+     * 
+     * @param output path of the output of the conversion
+     * @param export path of the export being converted
+     * @return the checkpoint to resume from, or null to start from the beginning
+     */
+    static ConversionCheckpoint load(String output, String export) {
+        File file = new File(output + SUFFIX);
+        if (!file.isFile()) return null;
+        Properties properties = new Properties();
+        try (FileInputStream in = new FileInputStream(file)) {
+            properties.load(in);
+            ConversionCheckpoint checkpoint = new ConversionCheckpoint();
+            checkpoint.export = properties.getProperty("export", "");
+            checkpoint.exportLength = Long.parseLong(properties.getProperty("exportLength"));
+            checkpoint.pagesRead = Long.parseLong(properties.getProperty("pagesRead"));
+            checkpoint.pagesWritten = Long.parseLong(properties.getProperty("pagesWritten"));
+            checkpoint.outputLength = Long.parseLong(properties.getProperty("outputLength"));
+            checkpoint.lastTitle = properties.getProperty("lastTitle", "");
+            if (!checkpoint.export.equals(export)
+                    || checkpoint.exportLength != new File(export).length()
+                    || checkpoint.outputLength > new File(output).length()) {
+                System.err.println("Ignoring checkpoint of another conversion @ " + file);
+                return null;
+            }
+            return checkpoint;
+        } catch (IOException | NumberFormatException ex) {
+            System.err.println("Ignoring unreadable checkpoint @ " + file + ": " + ex);
+        }
+        return null;
+    }
+
+    /**
+     * Saves the checkpoint, replacing the previous one in a single (atomic) move
+     * so that a crash while saving leaves the previous checkpoint in place.
+     * 
+     * @param output path of the output of the conversion
+     * @throws IOException if the checkpoint could not be saved
+     */
+    void save(String output) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("export", export);
+        properties.setProperty("exportLength", Long.toString(exportLength));
+        properties.setProperty("pagesRead", Long.toString(pagesRead));
+        properties.setProperty("pagesWritten", Long.toString(pagesWritten));
+        properties.setProperty("outputLength", Long.toString(outputLength));
+        properties.setProperty("lastTitle", lastTitle);
+        Path target = Paths.get(output + SUFFIX);
+        Path temporary = Paths.get(output + SUFFIX + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temporary.toFile())) {
+            properties.store(out, "conversion checkpoint");
+            out.getFD().sync();
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Removes the checkpoint of the output, once its conversion has completed.
+     * 
+     * @param output path of the output of the conversion
+     */
+    static void delete(String output) {
+        try {
+            Files.deleteIfExists(Paths.get(output + SUFFIX));
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.concurrent.ExecutionException;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.io.ByteArrayInputStream;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.io.BufferedInputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Future;
+import java.io.InputStreamReader;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * MultistreamBZip2InputStream - parallel decompression of multistream dumps.
+ * 
+ * The multistream dumps are a concatenation of independent bzip2 streams (the
+ * siteinfo header, then about a hundred pages per stream), and come with an
+ * index of "offset:pageid:title" lines giving the offset of every stream. With
+ * the offsets, the streams are decompressed by a pool of threads at the same
+ * time, and handed out in file order, so the xml read from this stream is the
+ * same as the xml read through a (single threaded) BZip2InputStream.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class MultistreamBZip2InputStream extends InputStream {
+    /**
+     * Number of streams decompressed ahead of the reader for each thread.
+     */
+    private static final int STREAMS_AHEAD_PER_THREAD = 2;
+
+    private final FileChannel channel;
+    private final long[] offsets;   // start of every stream, then end of file
+    private final ExecutorService threads;
+    private final ArrayDeque<Future<byte[]>> ahead = new ArrayDeque<>();
+    private final int window;
+    private int nextStream;
+
+    private byte[] current = new byte[0];
+    private int position;
+
+    /**
+     * @param filename the multistream dump (.xml.bz2)
+     * @param indexFilename the index of the dump (.txt or .txt.bz2)
+     * @param threadCount number of threads decompressing streams
+     * @throws IOException if the dump or its index could not be read
+     */
+    MultistreamBZip2InputStream(String filename, String indexFilename, int threadCount)
+            throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            offsets = readStreamOffsets(indexFilename, channel.size());
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        threadCount = Math.max(1, threadCount);
+        threads = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "bzip2-multistream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        window = threadCount * STREAMS_AHEAD_PER_THREAD;
+        fill();
+    }
+
+    /**
+     * Reads the distinct stream offsets out of the index, the first stream (the
+     * header) starts at zero, and the end of the file closes the last stream.
+     */
+    private static long[] readStreamOffsets(String indexFilename, long fileSize)
+            throws IOException {
+        long[] offsets = new long[1024];
+        int count = 1; // offsets[0] = 0
+        InputStream in = new BufferedInputStream(new FileInputStream(indexFilename), 1 << 16);
+        if (indexFilename.endsWith(".bz2")) {
+            in = new BufferedInputStream(new BZip2InputStream(in), 1 << 16);
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) continue;
+                long offset;
+                try {
+                    offset = Long.parseLong(line.substring(0, colon));
+                } catch (NumberFormatException ex) {
+                    throw new IOException("bad multistream index line: " + line);
+                }
+                if (offset == offsets[count - 1]) continue; // same stream
+                if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+                offsets[count++] = offset;
+            }
+        }
+        offsets = Arrays.copyOf(offsets, count + 1);
+        offsets[count] = fileSize;
+        Arrays.sort(offsets);
+        for (int i = 1; i < offsets.length; i++) {
+            if (offsets[i] > fileSize) throw new IOException("index does not match the dump");
+        }
+        return offsets;
+    }
+
+    /**
+     * Keeps the window of streams being decompressed ahead of the reader full.
+     */
+    private void fill() {
+        while (ahead.size() < window && nextStream < offsets.length - 1) {
+            final long start = offsets[nextStream];
+            final long end = offsets[nextStream + 1];
+            nextStream++;
+            if (end > start) {
+                ahead.add(threads.submit(() -> decompress(start, end)));
+            }
+        }
+    }
+
+    private byte[] decompress(long start, long end) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate((int) (end - start));
+        while (compressed.hasRemaining()) {
+            int n = channel.read(compressed, start + compressed.position());
+            if (n < 0) throw new EOFException("unexpected end of multistream dump");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.capacity() * 4);
+        try (InputStream in = new BZip2InputStream(new ByteArrayInputStream(compressed.array()))) {
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Moves on to the next decompressed stream, in file order.
+     * 
+     * @return false when all of the streams have been read
+     */
+    private boolean nextStream() throws IOException {
+        Future<byte[]> next = ahead.poll();
+        if (next == null) return false;
+        try {
+            current = next.get();
+            position = 0;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("multistream decompression interrupted");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+        fill();
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (position == current.length) {
+            if (!nextStream()) return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        while (position == current.length) {
+            if (!nextStream()) return -1;
+        }
+        int n = Math.min(length, current.length - position);
+        System.arraycopy(current, position, buffer, offset, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        threads.shutdownNow();
+        channel.close();
+    }
+}
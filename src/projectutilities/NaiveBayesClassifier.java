@@ -0,0 +1,230 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * NaiveBayesClassifier - scores a document against every class in one pass.
+ * 
+ * The term models of the classes (objects, women, men, ...) are compiled into
+ * one table over their shared vocabulary V: a row for every term, holding the
+ * log likelihood of the term in each class next to each other, Laplace
+ * smoothed, log((count + 1) / (total + |V|)), which for a term the class has
+ * not seen is the log of the smoothing constant of getClassProbability. A
+ * document is scored by walking its terms once, looking each up once, and
+ * adding its row (times the count of the term in the document) to the scores
+ * of all of the classes at the same time.
+ * 
+ * The score of a class is the multinomial Naive Bayes log likelihood of the
+ * document, the classes taken as equally likely. Unlike getClassProbability,
+ * a term the class has not seen is never worth more than one it has seen. The
+ * classifier is immutable, documents may be classified from any number of
+ * threads.
+ * 
+ * The classification is either the class with the highest score, or a cascade
+ * as the project classifies: a first class against all of the others at once
+ * (objects against people, the people scored as a mixture of their classes),
+ * then, when it is not the first class, the best of the others (women or men).
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public final class NaiveBayesClassifier {
+
+    private final String[] labels;
+    private final TermDictionary vocabulary = new TermDictionary();
+    private final double[] table;       // row of class log likelihoods per term
+    private final double[] unseenLogs;  // log likelihood of an unseen term per class
+
+    /**
+     * Compiles the trained models (the term counts) of the classes into a
+     * classifier.
+     * 
+     * @param classes the model of every class, by label, in the order the
+     * scores are returned in
+     */
+    public NaiveBayesClassifier(Map<String, TermCountProbabilityModel> classes) {
+        if (classes.isEmpty()) throw new IllegalArgumentException("no classes to classify by");
+        labels = classes.keySet().toArray(new String[classes.size()]);
+        TermCountProbabilityModel[] models = classes.values().toArray(
+                new TermCountProbabilityModel[classes.size()]);
+        StringBuilder term = new StringBuilder();
+        for (TermCountProbabilityModel model : models) {
+            TermDictionary terms = model.terms();
+            for (int id = 0; id < terms.size(); id++) {
+                term.setLength(0);
+                terms.appendTerm(id, term);
+                vocabulary.idOf(term);
+            }
+        }
+        int classCount = labels.length;
+        table = new double[vocabulary.size() * classCount];
+        unseenLogs = new double[classCount];
+        for (int c = 0; c < classCount; c++) {
+            double logTotal = Math.log(vocabulary.size() + (double) models[c].getTotalTermCount());
+            unseenLogs[c] = -logTotal;
+            for (int row = c; row < table.length; row += classCount) {
+                table[row] = unseenLogs[c];
+            }
+            TermDictionary terms = models[c].terms();
+            for (int id = 0; id < terms.size(); id++) {
+                term.setLength(0);
+                terms.appendTerm(id, term);
+                table[vocabulary.find(term) * classCount + c] =
+                        Math.log(models[c].countOf(id) + 1.0) - logTotal;
+            }
+        }
+    }
+
+    /**
+     * Returns the labels of the classes, in the order of the scores.
+     * 
+     * @return 
+     */
+    public String[] getLabels() {
+        return labels.clone();
+    }
+
+    /**
+     * Returns the size of the vocabulary shared by the classes.
+     * 
+     * @return 
+     */
+    public int getVocabularySize() {
+        return vocabulary.size();
+    }
+
+    /**
+     * Scores the document against every class, in a single pass.
+     * 
+     * @param document the term counts of the document
+     * @return the log likelihood of the document for every class, in the
+     * order of the labels
+     */
+    public double[] score(TermCountProbabilityModel document) {
+        int classCount = labels.length;
+        double[] scores = new double[classCount];
+        StringBuilder term = new StringBuilder();
+        TermDictionary documentTerms = document.terms();
+        long unknown = 0; // count of the terms that none of the classes have
+        for (int documentId = 0; documentId < documentTerms.size(); documentId++) {
+            term.setLength(0);
+            documentTerms.appendTerm(documentId, term);
+            int count = document.countOf(documentId);
+            int id = vocabulary.find(term);
+            if (id < 0) {
+                unknown += count;
+                continue;
+            }
+            int row = id * classCount;
+            for (int c = 0; c < classCount; c++) {
+                scores[c] += count * table[row + c];
+            }
+        }
+        for (int c = 0; c < classCount; c++) {
+            scores[c] += unknown * unseenLogs[c];
+        }
+        return scores;
+    }
+
+    /**
+     * Scores every document against every class, on all of the cores.
+     * 
+     * @param documents the term counts of the documents
+     * @return the scores of every document, in the order of the documents
+     */
+    public double[][] score(List<TermCountProbabilityModel> documents) {
+        double[][] scores = new double[documents.size()][];
+        Arrays.parallelSetAll(scores, i -> score(documents.get(i)));
+        return scores;
+    }
+
+    /**
+     * Classifies the document as the class with the highest score.
+     * 
+     * @param document the term counts of the document
+     * @return the label of the class
+     */
+    public String classify(TermCountProbabilityModel document) {
+        return classify(document, null);
+    }
+
+    /**
+     * Classifies the document in a cascade: the first class against all of
+     * the other classes together (the others scored as an even mixture of
+     * them), then, if it is not of the first class, as the best of the others.
+     * 
+     * @param document the term counts of the document
+     * @param firstLabel the label of the first class, for example "objects",
+     * or null to classify as the class with the highest score
+     * @return the label of the class
+     */
+    public String classify(TermCountProbabilityModel document, String firstLabel) {
+        return decide(score(document), indexOf(firstLabel));
+    }
+
+    /**
+     * Classifies every document, like classify(document, firstLabel), on all
+     * of the cores.
+     * 
+     * @param documents the term counts of the documents
+     * @param firstLabel the label of the first class of the cascade, or null
+     * @return the label of the class of every document, in the order of the
+     * documents
+     */
+    public String[] classify(List<TermCountProbabilityModel> documents, String firstLabel) {
+        int first = indexOf(firstLabel);
+        String[] classes = new String[documents.size()];
+        Arrays.parallelSetAll(classes, i -> decide(score(documents.get(i)), first));
+        return classes;
+    }
+
+    private int indexOf(String label) {
+        if (label == null) return -1;
+        for (int c = 0; c < labels.length; c++) {
+            if (labels[c].equals(label)) return c;
+        }
+        throw new IllegalArgumentException("no class labelled " + label);
+    }
+
+    private String decide(double[] scores, int first) {
+        if (first >= 0 && labels.length > 1) {
+            // log of the mean of the probabilities of the others, kept in range
+            double max = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < scores.length; c++) {
+                if (c != first) max = Math.max(max, scores[c]);
+            }
+            double sum = 0;
+            for (int c = 0; c < scores.length; c++) {
+                if (c != first) sum += Math.exp(scores[c] - max);
+            }
+            double others = max + Math.log(sum / (scores.length - 1));
+            if (scores[first] >= others) return labels[first];
+        }
+        int best = -1;
+        for (int c = 0; c < scores.length; c++) {
+            if (c == first) continue;
+            if (best < 0 || scores[c] > scores[best]) best = c;
+        }
+        return labels[(best < 0) ? first : best];
+    }
+}
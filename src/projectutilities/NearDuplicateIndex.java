@@ -0,0 +1,221 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Arrays;
+
+/**
+ * NearDuplicateIndex - finds texts that are nearly the same as earlier texts.
+ * 
+ * A text is turned into the set of its word shingles (every run of SHINGLE
+ * words), and the set into a MinHash signature: for each of HASHES hash
+ * functions, the smallest hash of any shingle. The fraction of the hashes two
+ * signatures agree on estimates the Jaccard similarity of the two sets.
+ * 
+ * To find the candidates without comparing every pair of texts, the signature
+ * is cut into bands of rows (locality sensitive hashing), and texts sharing
+ * a band are candidates, which are kept if their signatures agree on at least
+ * the threshold fraction of the hashes. The bands are sized so that texts of
+ * the threshold similarity are nearly always candidates.
+ * 
+ * Only the latest capacity texts are indexed, the oldest are dropped first.
+ * Not thread safe.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ * @param <T> what is kept for each text, returned for its near duplicates
+ */
+final class NearDuplicateIndex<T> {
+
+    private static final int HASHES = 120;
+    private static final int SHINGLE = 3;
+    private static final long[] SEEDS = new long[HASHES];
+
+    static {
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < HASHES; i++) {
+            seed = mix(seed + 0x9E3779B97F4A7C15L);
+            SEEDS[i] = seed;
+        }
+    }
+
+    /**
+     * An indexed text.
+     */
+    private static final class Text<T> {
+        final int[] signature;
+        final T value;
+        Text(int[] signature, T value) {
+            this.signature = signature;
+            this.value = value;
+        }
+    }
+
+    private final double threshold;
+    private final int capacity;
+    private final int rows;         // hashes per band
+    private final int bands;
+    private final LinkedHashMap<Integer, Text<T>> texts = new LinkedHashMap<>();
+    private final HashMap<Long, ArrayList<Integer>> buckets = new HashMap<>();
+    private int nextId;
+
+    /**
+     * @param threshold the similarity (0 to 1) from which texts are duplicates
+     * @param capacity number of the latest texts that are indexed
+     */
+    NearDuplicateIndex(double threshold, int capacity) {
+        check(threshold, capacity);
+        this.threshold = threshold;
+        this.capacity = capacity;
+        // the most rows per band for which the threshold of the bands,
+        // (1 / bands) ^ (1 / rows), is still a little below the threshold
+        int best = 1;
+        for (int r = 1; r <= HASHES; r++) {
+            if (HASHES % r != 0) continue;
+            if (Math.pow(1.0 / (HASHES / r), 1.0 / r) <= threshold - 0.05) best = r;
+        }
+        rows = best;
+        bands = HASHES / rows;
+    }
+
+    /**
+     * Checks the parameters of the index.
+     * 
+     * @param threshold
+     * @param capacity
+     * @throws IllegalArgumentException if the index cannot be made with them
+     */
+    static void check(double threshold, int capacity) {
+        if (threshold <= 0 || threshold > 1 || capacity < 1) {
+            throw new IllegalArgumentException("the threshold must be in (0, 1], "
+                    + "and at least one text indexed");
+        }
+    }
+
+    /**
+     * Computes the MinHash signature of a text.
+     * 
+     * @param text
+     * @return 
+     */
+    int[] signature(String text) {
+        int[] signature = new int[HASHES];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        int length = text.length();
+        int[] starts = new int[16]; // of the words, then past the end
+        int words = 0;
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) != ' ' && (i == 0 || text.charAt(i - 1) == ' ')) {
+                if (words == starts.length - 1) starts = Arrays.copyOf(starts, words * 2);
+                starts[words++] = i;
+            }
+        }
+        starts[words] = length + 1;
+        int shingles = Math.max(1, words - SHINGLE + 1);
+        for (int s = 0; s < shingles; s++) {
+            int from = (words == 0) ? 0 : starts[s];
+            int to = Math.min(length, starts[Math.min(s + SHINGLE, words)] - 1);
+            long hash = 0xcbf29ce484222325L;
+            for (int i = from; i < to; i++) {
+                hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+            }
+            for (int h = 0; h < HASHES; h++) {
+                int value = (int) (mix(hash ^ SEEDS[h]) >>> 33);
+                if (value < signature[h]) signature[h] = value;
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Finds an indexed text that is a near duplicate of the signature.
+     * 
+     * @param signature the signature of the text
+     * @return what was kept for the most similar indexed text, or null
+     */
+    T find(int[] signature) {
+        HashSet<Integer> compared = new HashSet<>();
+        Text<T> best = null;
+        int bestAgreed = (int) Math.ceil(threshold * HASHES) - 1;
+        for (int band = 0; band < bands; band++) {
+            ArrayList<Integer> bucket = buckets.get(bandKey(signature, band));
+            if (bucket == null) continue;
+            for (int id : bucket) {
+                if (!compared.add(id)) continue;
+                Text<T> text = texts.get(id);
+                int agreed = 0;
+                for (int h = 0; h < HASHES; h++) {
+                    if (text.signature[h] == signature[h]) agreed++;
+                }
+                if (agreed > bestAgreed) {
+                    best = text;
+                    bestAgreed = agreed;
+                }
+            }
+        }
+        return (best == null) ? null : best.value;
+    }
+
+    /**
+     * Indexes a text, dropping the oldest text when the index is full.
+     * 
+     * @param signature the signature of the text
+     * @param value what is kept for the text
+     */
+    void add(int[] signature, T value) {
+        int id = nextId++;
+        texts.put(id, new Text<>(signature, value));
+        for (int band = 0; band < bands; band++) {
+            buckets.computeIfAbsent(bandKey(signature, band), key -> new ArrayList<>()).add(id);
+        }
+        if (texts.size() > capacity) {
+            Iterator<HashMap.Entry<Integer, Text<T>>> oldest = texts.entrySet().iterator();
+            HashMap.Entry<Integer, Text<T>> entry = oldest.next();
+            oldest.remove();
+            for (int band = 0; band < bands; band++) {
+                long key = bandKey(entry.getValue().signature, band);
+                ArrayList<Integer> bucket = buckets.get(key);
+                bucket.remove(entry.getKey());
+                if (bucket.isEmpty()) buckets.remove(key);
+            }
+        }
+    }
+
+    private long bandKey(int[] signature, int band) {
+        long hash = band;
+        for (int h = band * rows; h < (band + 1) * rows; h++) {
+            hash = hash * 0x100000001b3L + signature[h];
+        }
+        return mix(hash);
+    }
+
+    /**
+     * The finalizer of SplitMix64, spreads the bits of a hash.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
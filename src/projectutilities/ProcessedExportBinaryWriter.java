@@ -0,0 +1,240 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.file.StandardOpenOption;
+import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.io.DataOutputStream;
+import java.nio.channels.Channels;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.EOFException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ProcessedExportBinaryWriter - writes the binary processed export format.
+ * 
+ * The pages are appended as they come, and the start of every page is kept in
+ * memory until the output is closed, then written out as the trailing index.
+ * See ProcessedExportFile for the layout of the file, and for reading it.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class ProcessedExportBinaryWriter implements ProcessedExportOutput {
+    /**
+     * Size of the buffer between the writer and the file channel.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final DataOutputStream output;
+    private long position;                  // bytes written, buffered or not
+    private long[] offsets = new long[1024];
+    private int pageCount;
+
+    /**
+     * Creates (or truncates) the output file and writes the header.
+     * 
+     * @param filename path of the binary processed export to write
+     * @throws IOException if the output file could not be opened
+     */
+    ProcessedExportBinaryWriter(String filename) throws IOException {
+        this(filename, -1);
+    }
+
+    /**
+     * Opens the output file to continue an interrupted conversion, the file is
+     * truncated to the given length (see checkpoint()), and the index of the
+     * pages before it is rebuilt by walking over their records.
+     * 
+     * @param filename path of the binary processed export to write
+     * @param resumeAt length of the output at the checkpoint, -1 to start over
+     * @throws IOException if the output file could not be opened
+     */
+    ProcessedExportBinaryWriter(String filename, long resumeAt) throws IOException {
+        if (resumeAt >= 0) {
+            channel = FileChannel.open(Paths.get(filename),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                readOffsets(resumeAt);
+                channel.truncate(resumeAt);
+                channel.position(resumeAt);
+            } catch (IOException ex) {
+                channel.close();
+                throw ex;
+            }
+            position = resumeAt;
+        } else {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        output = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel), OUTPUT_BUFFER_SIZE));
+        if (resumeAt < 0) {
+            output.write(ProcessedExportFile.MAGIC);
+            output.writeInt(ProcessedExportFile.VERSION);
+            position = ProcessedExportFile.HEADER_SIZE;
+        }
+    }
+
+    /**
+     * Walks over the page records before the end, to find where each starts.
+     */
+    private void readOffsets(long end) throws IOException {
+        channel.position(0);
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel), OUTPUT_BUFFER_SIZE);
+        byte[] magic = new byte[ProcessedExportFile.MAGIC.length];
+        if (in.read(magic) != magic.length || !Arrays.equals(magic, ProcessedExportFile.MAGIC)
+                || end < ProcessedExportFile.HEADER_SIZE) {
+            throw new IOException("cannot resume, not a binary processed export");
+        }
+        skip(in, ProcessedExportFile.HEADER_SIZE - magic.length);
+        long at = ProcessedExportFile.HEADER_SIZE;
+        while (at < end) {
+            addOffset(at);
+            long length = 0;
+            for (int field = 0; field < 4; field++) {
+                int count = 1; // the title, then the count of every list
+                if (field > 0) {
+                    count = readVarint(in);
+                    length += varintSize(count);
+                }
+                for (int i = 0; i < count; i++) {
+                    int bytes = readVarint(in);
+                    skip(in, bytes);
+                    length += varintSize(bytes) + bytes;
+                }
+            }
+            at += length;
+        }
+        if (at != end) throw new IOException("cannot resume, checkpoint is not at a page");
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("unexpected end of binary processed export");
+            value |= (b & 0x7f) << shift;
+            if (b < 0x80) return value;
+        }
+        throw new IOException("corrupt binary processed export (bad length)");
+    }
+
+    private static void skip(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long n = in.skip(count);
+            if (n <= 0) throw new EOFException("unexpected end of binary processed export");
+            count -= n;
+        }
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    private void addOffset(long offset) {
+        if (pageCount == offsets.length) offsets = Arrays.copyOf(offsets, pageCount * 2);
+        offsets[pageCount++] = offset;
+    }
+
+    /**
+     * Appends a single processed page record to the output.
+     * 
+     * @param title the title of the page
+     * @param texts the normalized paragraphs of the page
+     * @param categories the categories the page belongs to
+     * @param anchors the anchors (links) found in the page
+     * @throws IOException if the page could not be written
+     */
+    @Override
+    public void writePage(String title, List<String> texts, List<String> categories,
+            List<String> anchors) throws IOException {
+        addOffset(position);
+        writeString(title);
+        writeList(texts);
+        writeList(categories);
+        writeList(anchors);
+    }
+
+    private void writeList(List<String> list) throws IOException {
+        writeVarint(list.size());
+        for (String s : list) {
+            writeString(s);
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        output.write(bytes);
+        position += bytes.length;
+    }
+
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            output.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+            position++;
+        }
+        output.write(value);
+        position++;
+    }
+
+    /**
+     * Flushes every page written so far all the way to the disk.
+     * 
+     * @return the length of the output holding the pages written so far
+     * @throws IOException if the output could not be flushed
+     */
+    @Override
+    public long checkpoint() throws IOException {
+        output.flush();
+        channel.force(false);
+        return position;
+    }
+
+    /**
+     * Writes the index of the pages and the trailer, then closes the file.
+     * 
+     * @throws IOException if the index could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            long indexOffset = position;
+            for (int i = 0; i < pageCount; i++) {
+                output.writeLong(offsets[i]);
+            }
+            output.writeLong(indexOffset);
+            output.writeLong(pageCount);
+            output.write(ProcessedExportFile.MAGIC);
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.MappedByteBuffer;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * ProcessedExportFile - random access to a binary processed export.
+ * 
+ * The binary processed export holds the same pages as the xml one, with no
+ * markup at all: every string is its length (a varint) followed by its UTF-8
+ * bytes, and the end of the file is an index of where every page starts.
+ * 
+ *   header  : "WSEP" version(int)
+ *   page    : title  count(varint) text*  count(varint) category*
+ *             count(varint) anchor*
+ *   index   : offset(long) of every page
+ *   trailer : index offset(long)  page count(long)  "WSEP"
+ * 
+ * The pages are read straight out of a memory mapping of the file, so page N
+ * is found through the index without reading (or parsing) the pages before it.
+ * The file is mapped in chunks of a gigabyte, a page that spans two chunks is
+ * read through the channel instead. A file may be read by several threads.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public final class ProcessedExportFile implements AutoCloseable {
+
+    static final byte[] MAGIC = {'W', 'S', 'E', 'P'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int TRAILER_SIZE = 20;
+
+    /**
+     * Size of each memory mapped chunk of the file.
+     */
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final long[] offsets;   // start of every page, then start of the index
+
+    /**
+     * Opens and maps a binary processed export, reading its page index.
+     * 
+     * @param filename path of the binary processed export
+     * @throws IOException if the file could not be read or is not complete
+     */
+    public ProcessedExportFile(String filename) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            offsets = readIndex(filename);
+            long end = offsets[offsets.length - 1];
+            chunks = new MappedByteBuffer[(int) ((end + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = i * CHUNK_SIZE;
+                chunks[i] = channel.map(MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, end - start));
+            }
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Checks whether the file starts like a binary processed export, so that
+     * it can be told apart from an xml processed export.
+     * 
+     * @param filename path of the processed export
+     * @return true if the file is a binary processed export
+     */
+    public static boolean isProcessedExportFile(String filename) {
+        byte[] magic = new byte[MAGIC.length];
+        try (FileInputStream in = new FileInputStream(filename)) {
+            return in.read(magic) == magic.length && Arrays.equals(magic, MAGIC);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private long[] readIndex(String filename) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE + TRAILER_SIZE) {
+            throw new IOException("not a binary processed export: " + filename);
+        }
+        ByteBuffer header = read(0, HEADER_SIZE);
+        ByteBuffer trailer = read(size - TRAILER_SIZE, TRAILER_SIZE);
+        if (!hasMagic(header) || header.getInt() != VERSION) {
+            throw new IOException("not a binary processed export (version "
+                    + VERSION + "): " + filename);
+        }
+        long indexOffset = trailer.getLong();
+        long pageCount = trailer.getLong();
+        if (!hasMagic(trailer) || pageCount < 0 || pageCount >= Integer.MAX_VALUE
+                || indexOffset + pageCount * 8 + TRAILER_SIZE != size) {
+            throw new IOException("incomplete binary processed export: " + filename);
+        }
+        long indexLength = pageCount * 8;
+        if (indexLength > Integer.MAX_VALUE) {
+            throw new IOException("binary processed export has too many pages (" + pageCount
+                    + ") for its index to be read: " + filename);
+        }
+        long[] index = new long[(int) pageCount + 1];
+        read(indexOffset, (int) indexLength).asLongBuffer().get(index, 0, (int) pageCount);
+        index[(int) pageCount] = indexOffset;
+        return index;
+    }
+
+    private static boolean hasMagic(ByteBuffer buffer) {
+        for (byte b : MAGIC) {
+            if (buffer.get() != b) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a part of the file through the channel, instead of the mapping.
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("unexpected end of binary processed export");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Returns the number of pages in the processed export.
+     * 
+     * @return 
+     */
+    public int getPageCount() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Returns the title of a page.
+     * 
+     * @param page the number of the page, from zero
+     * @return the title of the page
+     * @throws IOException if the page could not be read
+     */
+    public String getTitle(int page) throws IOException {
+        return readString(page(page));
+    }
+
+    /**
+     * Returns the normalized paragraphs of a page.
+     * 
+     * @param page the number of the page, from zero
+     * @return the paragraphs of the page
+     * @throws IOException if the page could not be read
+     */
+    public ArrayList<String> getTexts(int page) throws IOException {
+        ByteBuffer buffer = page(page);
+        skipString(buffer);
+        return readList(buffer);
+    }
+
+    /**
+     * Returns the categories of a page.
+     * 
+     * @param page the number of the page, from zero
+     * @return the categories of the page
+     * @throws IOException if the page could not be read
+     */
+    public ArrayList<String> getCategories(int page) throws IOException {
+        ByteBuffer buffer = page(page);
+        skipString(buffer);
+        skipList(buffer);
+        return readList(buffer);
+    }
+
+    /**
+     * Returns the anchors (links) of a page.
+     * 
+     * @param page the number of the page, from zero
+     * @return the anchors of the page
+     * @throws IOException if the page could not be read
+     */
+    public ArrayList<String> getAnchors(int page) throws IOException {
+        ByteBuffer buffer = page(page);
+        skipString(buffer);
+        skipList(buffer);
+        skipList(buffer);
+        return readList(buffer);
+    }
+
+    /**
+     * Returns a buffer holding (only) the record of the page.
+     */
+    private ByteBuffer page(int page) throws IOException {
+        if (page < 0 || page >= getPageCount()) {
+            throw new IndexOutOfBoundsException("page " + page + " of " + getPageCount());
+        }
+        long start = offsets[page];
+        long end = offsets[page + 1];
+        int chunk = (int) (start / CHUNK_SIZE);
+        long base = chunk * CHUNK_SIZE;
+        if (end - base > chunks[chunk].capacity()) {
+            return read(start, (int) (end - start)); // spans two chunks
+        }
+        ByteBuffer buffer = chunks[chunk].duplicate();
+        buffer.limit((int) (end - base));
+        buffer.position((int) (start - base));
+        return buffer;
+    }
+
+    static int readVarint(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IOException("corrupt binary processed export (bad length)");
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = readVarint(buffer);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buffer) throws IOException {
+        int length = readVarint(buffer);
+        buffer.position(buffer.position() + length);
+    }
+
+    private static ArrayList<String> readList(ByteBuffer buffer) throws IOException {
+        int count = readVarint(buffer);
+        ArrayList<String> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(readString(buffer));
+        }
+        return list;
+    }
+
+    private static void skipList(ByteBuffer buffer) throws IOException {
+        int count = readVarint(buffer);
+        for (int i = 0; i < count; i++) {
+            skipString(buffer);
+        }
+    }
+
+    /**
+     * Closes the file, the mapping itself is released by the garbage collector.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,65 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * ProcessedExportOutput - where a conversion writes its processed pages to.
+ * 
+ * Implemented by the xml processed export (ProcessedExportWriter) and by the
+ * compact binary container (ProcessedExportBinaryWriter), the conversion and
+ * its checkpoints work the same way with either of them.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+interface ProcessedExportOutput extends AutoCloseable {
+
+    /**
+     * Writes a single processed page to the output.
+     * 
+     * @param title the title of the page
+     * @param texts the normalized paragraphs of the page
+     * @param categories the categories the page belongs to
+     * @param anchors the anchors (links) found in the page
+     * @throws XMLStreamException if the page could not be written as xml
+     * @throws IOException if the page could not be written
+     */
+    void writePage(String title, List<String> texts, List<String> categories,
+            List<String> anchors) throws XMLStreamException, IOException;
+
+    /**
+     * Flushes every page written so far all the way to the disk.
+     * 
+     * @return the length of the output holding the pages written so far
+     * @throws IOException if the output could not be flushed
+     */
+    long checkpoint() throws IOException;
+
+    /**
+     * Completes the output and closes it.
+     * 
+     * @throws IOException if the end of the output could not be written
+     */
+    @Override
+    void close() throws IOException;
+}
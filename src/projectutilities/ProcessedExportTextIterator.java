@@ -0,0 +1,137 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import java.util.NoSuchElementException;
+import java.io.UncheckedIOException;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * ProcessedExportTextIterator - the paragraphs of a processed export, lazily.
+ * 
+ * The paragraphs are read one at a time as the iterator is advanced, with a
+ * StAX parser for the xml processed exports, and one page at a time out of
+ * the memory mapping for the binary ones. Only the current paragraph (or page)
+ * is held in memory, however large the processed export is.
+ * 
+ * A failure while reading is thrown as an UncheckedIOException from next().
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class ProcessedExportTextIterator implements Iterator<String>, AutoCloseable {
+
+    private InputStream input;          // xml processed export
+    private XMLStreamReader reader;
+    private ProcessedExportFile file;   // binary processed export
+    private Iterator<String> pageTexts;
+    private int page;
+
+    private String next;
+
+    /**
+     * Opens the processed export, xml or binary, no paragraphs are read yet.
+     * 
+     * @param filename path of the processed export
+     * @throws IOException if the processed export could not be opened
+     */
+    ProcessedExportTextIterator(String filename) throws IOException {
+        if (ProcessedExportFile.isProcessedExportFile(filename)) {
+            file = new ProcessedExportFile(filename);
+            return;
+        }
+        input = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            try {
+                // as for the export, large files exceed the default entity limit
+                factory.setProperty("http://www.oracle.com/xml/jaxp/properties/totalEntitySizeLimit", "0");
+            } catch (IllegalArgumentException ex) {
+                // not the jdk's built in parser, so the limit does not apply here
+            }
+            reader = factory.createXMLStreamReader(input);
+        } catch (XMLStreamException ex) {
+            input.close();
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = (file != null) ? nextFromFile() : nextFromXml();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } catch (XMLStreamException ex) {
+                throw new UncheckedIOException(new IOException(ex));
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        String text = next;
+        next = null;
+        return text;
+    }
+
+    private String nextFromFile() throws IOException {
+        while (pageTexts == null || !pageTexts.hasNext()) {
+            if (page == file.getPageCount()) return null;
+            pageTexts = file.getTexts(page++).iterator();
+        }
+        return pageTexts.next();
+    }
+
+    private String nextFromXml() throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT
+                    && reader.getLocalName().equals("text")) {
+                return reader.getElementText();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+            return;
+        }
+        try {
+            reader.close();
+        } catch (XMLStreamException ex) {
+            System.err.println("XMLStreamException: " + ex.getMessage());
+        }
+        input.close();
+    }
+}
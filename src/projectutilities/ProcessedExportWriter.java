@@ -0,0 +1,201 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.nio.file.StandardOpenOption;
+import java.io.BufferedOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * ProcessedExportWriter - an incremental (StAX) writer for processed exports.
+ * 
+ * Each processed page is written out as soon as it has been extracted, so the
+ * pages never have to be collected into a list or an output DOM first. The
+ * file written has the same ProcessedSpecialExportData layout as before:
+ * 
+ * <ProcessedSpecialExportData>
+ *   <page>
+ *     <title/> <text/>* <categories/> <anchors/>
+ *   </page>*
+ * </ProcessedSpecialExportData>
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class ProcessedExportWriter implements ProcessedExportOutput {
+    /**
+     * Size of the buffer between the StAX writer and the file channel.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private static final String ROOT = "ProcessedSpecialExportData";
+
+    private final FileChannel channel;
+    private final OutputStream output;
+    private final XMLStreamWriter writer;
+
+    /**
+     * Whether the root element was opened by an earlier (interrupted) writer.
+     */
+    private final boolean resumed;
+
+    /**
+     * Creates (or truncates) the output file and writes the document header.
+     * 
+     * @param filename path of the processed export to write
+     * @throws IOException if the output file could not be opened
+     * @throws XMLStreamException if the document header could not be written
+     */
+    ProcessedExportWriter(String filename) throws IOException, XMLStreamException {
+        this(filename, -1);
+    }
+
+    /**
+     * Opens the output file to continue an interrupted conversion, the file is
+     * truncated to the given length (see checkpoint()) and the pages written
+     * from then on are appended to the pages that were already written.
+     * 
+     * @param filename path of the processed export to write
+     * @param resumeAt length of the output at the checkpoint, -1 to start over
+     * @throws IOException if the output file could not be opened
+     * @throws XMLStreamException if the document header could not be written
+     */
+    ProcessedExportWriter(String filename, long resumeAt) throws IOException, XMLStreamException {
+        resumed = resumeAt >= 0;
+        if (resumed) {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE);
+            channel.truncate(resumeAt);
+            channel.position(resumeAt);
+        } else {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        output = new BufferedOutputStream(Channels.newOutputStream(channel), OUTPUT_BUFFER_SIZE);
+        try {
+            XMLOutputFactory factory = XMLOutputFactory.newInstance();
+            writer = factory.createXMLStreamWriter(output, "UTF-8");
+            if (!resumed) {
+                writer.writeStartDocument("UTF-8", "1.0");
+                writer.writeStartElement(ROOT);
+            }
+        } catch (XMLStreamException ex) {
+            output.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes a single processed page element to the output.
+     * 
+     * @param title the title of the page
+     * @param texts the normalized paragraphs of the page
+     * @param categories the categories the page belongs to
+     * @param anchors the anchors (links) found in the page
+     * @throws XMLStreamException if the page could not be written
+     */
+    @Override
+    public void writePage(String title, List<String> texts, List<String> categories,
+            List<String> anchors) throws XMLStreamException {
+        writer.writeStartElement("page");
+        //
+        writeElement("title", title);
+        for (String p : texts) {
+            writeElement("text", p);
+        }
+        writeElement("categories", stringifyList(categories));
+        writeElement("anchors", stringifyList(anchors));
+        //
+        writer.writeEndElement();
+    }
+
+    private void writeElement(String name, String text) throws XMLStreamException {
+        if (text.isEmpty()) {
+            writer.writeEmptyElement(name); // as the dom transformer wrote it
+            return;
+        }
+        writer.writeStartElement(name);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
+    /**
+     * 
+     * @param list
+     * @return 
+     */
+    private String stringifyList(List<String> list) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : list) {
+            sb.append(' ');
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Flushes every page written so far all the way to the disk.
+     * 
+     * @return the length of the output holding the pages written so far
+     * @throws IOException if the output could not be flushed
+     */
+    @Override
+    public long checkpoint() throws IOException {
+        try {
+            writer.flush();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        }
+        output.flush();
+        channel.force(false);
+        return channel.position();
+    }
+
+    /**
+     * Closes the root element and the document, then flushes and closes file.
+     * 
+     * @throws IOException if the end of the document could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (resumed) {
+                // the stax writer never saw the root element, so close it here
+                writer.flush();
+                output.write(("</" + ROOT + ">").getBytes(StandardCharsets.UTF_8));
+            } else {
+                writer.writeEndElement();
+                writer.writeEndDocument();
+            }
+            writer.close();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        } finally {
+            output.close();
+        }
+    }
+}
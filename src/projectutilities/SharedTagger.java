@@ -0,0 +1,155 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import edu.stanford.nlp.tagger.maxent.MaxentTagger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * SharedTagger - the one MaxentTagger of the process, loaded when needed.
+ * 
+ * Loading the tagger model takes seconds, so it is no longer loaded when the
+ * tagging class is loaded, but the first time a text is tagged, or ahead of
+ * that on a background thread (preload), optionally followed by the tagging
+ * of a few sentences to get the JIT compiler going (warm up). Every tagger
+ * shares the loaded model, the MaxentTagger itself is thread safe.
+ * 
+ * The time taken to load the model, to warm it up, and to tag the first real
+ * text are kept as metrics.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class SharedTagger {
+
+    private static final String[] WARM_UP = {
+        "The quick brown fox jumps over the lazy dog.",
+        "She was born in 1902 and played football for Uruguay.",
+        "He is an American actor, director and producer.",
+        "The bridge is a suspension bridge over the river."
+    };
+
+    private static CompletableFuture<MaxentTagger> loading;
+    private static volatile long loadNanos = -1;
+    private static volatile long warmUpNanos = -1;
+    private static volatile long firstTagNanos = -1;
+    private static volatile long firstWaitNanos = -1;
+    private static final AtomicBoolean FIRST_TAG = new AtomicBoolean();
+
+    private SharedTagger() {
+    }
+
+    /**
+     * Starts loading the model on a background thread, if not started yet.
+     * 
+     * @param modelFile path of the tagger model
+     * @param warmUp true to tag a few sentences once the model is loaded
+     */
+    static synchronized void preload(String modelFile, boolean warmUp) {
+        if (loading != null) return;
+        loading = new CompletableFuture<>();
+        Thread loader = new Thread(() -> load(modelFile, warmUp), "tagger-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private static void load(String modelFile, boolean warmUp) {
+        try {
+            long start = System.nanoTime();
+            MaxentTagger tagger = new MaxentTagger(modelFile);
+            loadNanos = System.nanoTime() - start;
+            if (warmUp) {
+                start = System.nanoTime();
+                for (String sentence : WARM_UP) {
+                    tagger.tagString(sentence);
+                }
+                warmUpNanos = System.nanoTime() - start;
+            }
+            loading.complete(tagger);
+        } catch (RuntimeException | Error ex) {
+            loading.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Returns the tagger, loading the model on the calling thread (with no
+     * warm up) when it was not preloaded, or waiting for the preload to end.
+     * 
+     * @param modelFile path of the tagger model
+     * @return the tagger of the process
+     */
+    static MaxentTagger get(String modelFile) {
+        CompletableFuture<MaxentTagger> tagger;
+        boolean loadHere = false;
+        synchronized (SharedTagger.class) {
+            if (loading == null) {
+                loading = new CompletableFuture<>();
+                loadHere = true;
+            }
+            tagger = loading;
+        }
+        if (loadHere) load(modelFile, false);
+        try {
+            return tagger.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted loading the tagger model", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("tagger model could not be loaded: "
+                    + modelFile, ex.getCause());
+        }
+    }
+
+    /**
+     * Tags the text, the first text tagged is timed.
+     * 
+     * @param modelFile path of the tagger model
+     * @param text the text to tag
+     * @return the tagged text
+     */
+    static String tagString(String modelFile, String text) {
+        if (FIRST_TAG.get()) return get(modelFile).tagString(text);
+        long start = System.nanoTime();
+        MaxentTagger tagger = get(modelFile);
+        long loaded = System.nanoTime();
+        String tagged = tagger.tagString(text);
+        if (FIRST_TAG.compareAndSet(false, true)) {
+            firstWaitNanos = loaded - start;
+            firstTagNanos = System.nanoTime() - loaded;
+        }
+        return tagged;
+    }
+
+    /**
+     * Describes the load time, warm up time and first tag latency so far.
+     * 
+     * @return 
+     */
+    static String metrics() {
+        return "Tagger model: load " + millis(loadNanos) + ", warm up " + millis(warmUpNanos)
+                + ", first tag waited " + millis(firstWaitNanos)
+                + " for the model and took " + millis(firstTagNanos);
+    }
+
+    private static String millis(long nanos) {
+        return (nanos < 0) ? "n/a" : String.format("%.1f ms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,101 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.regex.Pattern;
+import java.util.HashSet;
+
+/**
+ * SpecialExportPageFilter - decides which pages of an export are processed.
+ * 
+ * The filter is evaluated by the streaming reader from the title, namespace
+ * and redirect elements of a page, which come before its revision, so the
+ * pages that are dropped (talk pages, templates, redirects, ...) are skipped
+ * over without their text ever being read.
+ * 
+ * A new filter accepts every page.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class SpecialExportPageFilter {
+
+    private final HashSet<Integer> namespaces = new HashSet<>();
+    private boolean skipRedirects;
+    private Pattern excludedTitles;
+
+    /**
+     * Creates a filter that only accepts articles: pages in the main (0)
+     * namespace that are not redirects.
+     * 
+     * @return a new filter for articles only
+     */
+    public static SpecialExportPageFilter articlesOnly() {
+        SpecialExportPageFilter filter = new SpecialExportPageFilter();
+        filter.setNamespaces(0);
+        filter.setSkipRedirects(true);
+        return filter;
+    }
+
+    /**
+     * Sets the namespaces (the <ns> of a page) that are accepted, with no
+     * namespaces given the pages of all namespaces are accepted.
+     * 
+     * @param accepted the namespace numbers to accept, 0 for articles
+     */
+    public void setNamespaces(int... accepted) {
+        namespaces.clear();
+        for (int namespace : accepted) {
+            namespaces.add(namespace);
+        }
+    }
+
+    /**
+     * Sets whether redirect pages (pages with a <redirect> element) are dropped.
+     * 
+     * @param skip true to drop the redirect pages
+     */
+    public void setSkipRedirects(boolean skip) {
+        skipRedirects = skip;
+    }
+
+    /**
+     * Sets a regular expression, pages with a title matching (any part of) it
+     * are dropped, for example "^List of|\\(disambiguation\\)$". Null clears it.
+     * 
+     * @param regex the pattern of the titles to drop, or null
+     */
+    public void setExcludedTitles(String regex) {
+        excludedTitles = (regex == null) ? null : Pattern.compile(regex);
+    }
+
+    /**
+     * Decides whether a page is processed.
+     * 
+     * @param title the title of the page
+     * @param namespace the namespace of the page
+     * @param redirect whether the page is a redirect
+     * @return true if the page should be processed
+     */
+    boolean accepts(String title, int namespace, boolean redirect) {
+        if (redirect && skipRedirects) return false;
+        if (!namespaces.isEmpty() && !namespaces.contains(namespace)) return false;
+        return excludedTitles == null || !excludedTitles.matcher(title).find();
+    }
+}
@@ -0,0 +1,391 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.util.zip.GZIPInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * SpecialExportPageReader - a streaming (StAX) reader for special export files.
+ * 
+ * Instead of parsing the whole export into a DOM, the reader pulls the export
+ * one page element at a time, so the memory used stays flat no matter how big
+ * the export file is: only the page currently being read is ever held.
+ * 
+ * Compressed exports (.xml.gz and .xml.bz2) are read without decompressing
+ * them to disk first.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class SpecialExportPageReader implements AutoCloseable {
+    /**
+     * The raw (unprocessed) data of a single page element in the export.
+     */
+    static final class RawPage {
+        public String title;
+        public char[] text;
+        public boolean leadSection; // text stops at the first section heading
+        public boolean redirect;
+        public int namespace;
+        public long ordinal;        // position among all the pages of the export
+    }
+
+    /**
+     * Size of the buffer between the export file and the StAX parser.
+     */
+    private static final int INPUT_BUFFER_SIZE = 1 << 16;
+
+    private final InputStream input;
+    private final XMLStreamReader reader;
+
+    /**
+     * Reusable buffer the page text is collected into before it is copied out.
+     */
+    private char[] textBuffer = new char[1 << 14];
+    private int textLength;
+
+    /**
+     * Whether only the lead section (before the first heading) of text is read.
+     */
+    private boolean leadSectionOnly;
+
+    /**
+     * Decides which pages are read, null to read all of them.
+     */
+    private SpecialExportPageFilter filter;
+    private long skippedPages;
+
+    /**
+     * Number of page elements read so far, filtered out or not.
+     */
+    private long pagesSeen;
+
+    /**
+     * Opens the special export file for streaming, no pages are read yet. The
+     * export may be plain xml, or gzip or bzip2 compressed xml, the format is
+     * detected from the first bytes of the file and decompressed on the fly.
+     * 
+     * @param filename path to the special export file
+     * @throws IOException if the export file could not be opened
+     * @throws XMLStreamException if the StAX parser could not be created
+     */
+    SpecialExportPageReader(String filename) throws IOException, XMLStreamException {
+        this(openExport(filename));
+    }
+
+    /**
+     * Streams the special export xml read from the input, no pages are read yet.
+     * 
+     * @param input the (decompressed) special export
+     * @throws XMLStreamException if the StAX parser could not be created
+     */
+    SpecialExportPageReader(InputStream input) throws XMLStreamException {
+        this.input = input;
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        try {
+            // real dumps easily exceed the jdk's default accumulated entity limit
+            factory.setProperty("http://www.oracle.com/xml/jaxp/properties/totalEntitySizeLimit", "0");
+        } catch (IllegalArgumentException ex) {
+            // not the jdk's built in parser, so the limit does not apply here
+        }
+        try {
+            reader = factory.createXMLStreamReader(input);
+        } catch (XMLStreamException ex) {
+            try {
+                input.close();
+            } catch (IOException closing) {
+                ex.addSuppressed(closing);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Opens the export file, decompressing it when it starts with the magic
+     * bytes of gzip (1f 8b) or of bzip2 ("BZh").
+     */
+    private static InputStream openExport(String filename) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(filename), INPUT_BUFFER_SIZE);
+        try {
+            in.mark(3);
+            int b0 = in.read(), b1 = in.read(), b2 = in.read();
+            in.reset();
+            if (b0 == 0x1f && b1 == 0x8b) {
+                in = new GZIPInputStream(in, INPUT_BUFFER_SIZE);
+            } else if (b0 == 'B' && b1 == 'Z' && b2 == 'h') {
+                in = new BZip2InputStream(in);
+            } else {
+                return in;
+            }
+        } catch (IOException | RuntimeException ex) {
+            // a truncated or corrupt header must not leak the open file
+            try {
+                in.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            throw ex;
+        }
+        return new BufferedInputStream(in, INPUT_BUFFER_SIZE);
+    }
+
+    /**
+     * Sets whether only the lead section of each page is read, in which case the
+     * text of a page stops at its first "==" heading line, and the rest of the
+     * text element is skipped over without being copied or turned into Strings.
+     * 
+     * @param leadOnly true to read only the lead section of the pages
+     */
+    void setLeadSectionOnly(boolean leadOnly) {
+        leadSectionOnly = leadOnly;
+    }
+
+    /**
+     * Sets the filter deciding which pages are read, the pages it drops are
+     * passed over before their text is read. Null reads all of the pages.
+     * 
+     * @param pageFilter the filter to apply, or null
+     */
+    void setPageFilter(SpecialExportPageFilter pageFilter) {
+        filter = pageFilter;
+    }
+
+    /**
+     * Returns the number of pages the filter has dropped so far.
+     * 
+     * @return 
+     */
+    long getSkippedPages() {
+        return skippedPages;
+    }
+
+    /**
+     * Returns the number of page elements read (or skipped) so far, counting
+     * the pages the filter dropped.
+     * 
+     * @return 
+     */
+    long getPagesSeen() {
+        return pagesSeen;
+    }
+
+    /**
+     * Reads forward to the next page element in the export and returns it.
+     * 
+     * @return the next page in the export, or null when there are no more pages
+     * @throws XMLStreamException if the export is not well formed
+     */
+    RawPage nextPage() throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT
+                    && reader.getLocalName().equals("page")) {
+                long ordinal = pagesSeen++;
+                RawPage page = readPage();
+                if (page != null) {
+                    page.ordinal = ordinal;
+                    return page;
+                }
+                skippedPages++;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Passes over the given number of page elements without reading any of
+     * their children, used to continue a conversion from its checkpoint.
+     * 
+     * @param count number of pages to skip
+     * @return the number of pages skipped, less than count at the end of export
+     * @throws XMLStreamException if the export is not well formed
+     */
+    long skipPages(long count) throws XMLStreamException {
+        long skipped = 0;
+        while (skipped < count && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT
+                    && reader.getLocalName().equals("page")) {
+                skipElement(1);
+                pagesSeen++;
+                skipped++;
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * Reads the children of the page element the parser is positioned on, the
+     * page title is a direct child and the text is the child of the revision.
+     * The title, namespace and redirect elements come before the revision, so
+     * the filter is applied as soon as the revision starts.
+     * 
+     * @return the page, or null when the filter dropped the page
+     */
+    private RawPage readPage() throws XMLStreamException {
+        RawPage page = new RawPage();
+        page.title = "";
+        textLength = 0;
+        boolean filtered = (filter == null);
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if (depth == 1 && name.equals("title")) {
+                    page.title = reader.getElementText().trim();
+                } else if (depth == 1 && name.equals("ns")) {
+                    page.namespace = parseNamespace(reader.getElementText());
+                } else if (depth == 2 && name.equals("text")) {
+                    readText();
+                } else {
+                    if (depth == 1 && name.equals("redirect")) {
+                        page.redirect = true;
+                    } else if (depth == 1 && name.equals("revision") && !filtered) {
+                        if (!accepts(page)) {
+                            skipElement(2); // inside of the page and the revision
+                            return null;
+                        }
+                        filtered = true;
+                    }
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        if (!filtered && !accepts(page)) return null;
+        page.text = Arrays.copyOf(textBuffer, textLength);
+        page.leadSection = leadSectionOnly;
+        return page;
+    }
+
+    private boolean accepts(RawPage page) {
+        return filter.accepts(page.title, page.namespace, page.redirect);
+    }
+
+    private static int parseNamespace(String namespace) {
+        try {
+            return Integer.parseInt(namespace.trim());
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Moves the parser to the end of the element it is the given depth inside
+     * of, without reading any of the skipped elements.
+     */
+    private void skipElement(int depth) throws XMLStreamException {
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Collects the character chunks of the text element into the text buffer,
+     * leaving the parser positioned on the end of the text element.
+     */
+    private void readText() throws XMLStreamException {
+        textLength = 0;
+        int scanned = 0; // the text before has been searched for a heading
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                int length = reader.getTextLength();
+                ensureTextCapacity(textLength + length);
+                System.arraycopy(reader.getTextCharacters(), reader.getTextStart(),
+                        textBuffer, textLength, length);
+                textLength += length;
+                if (leadSectionOnly) {
+                    int heading = findHeading(scanned);
+                    if (heading >= 0) {
+                        textLength = heading;
+                        skipToEndOfText();
+                        return;
+                    }
+                    scanned = Math.max(textLength - 1, 0);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the first heading line ("==" at the start of a line) in the text
+     * buffer, starting from the given position.
+     * 
+     * @return the position of the heading, or -1 when there is none (yet)
+     */
+    private int findHeading(int from) {
+        for (int i = from; i < textLength - 1; i++) {
+            if (textBuffer[i] == '=' && textBuffer[i + 1] == '='
+                    && (i == 0 || textBuffer[i - 1] == '\n')) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the parser to the end of the text element, the remaining character
+     * events are passed over without their characters ever being read.
+     */
+    private void skipToEndOfText() throws XMLStreamException {
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            // nothing to do, the rest of the text is not needed
+        }
+    }
+
+    private void ensureTextCapacity(int capacity) {
+        if (capacity > textBuffer.length) {
+            int grown = Math.max(capacity, textBuffer.length * 2);
+            textBuffer = Arrays.copyOf(textBuffer, grown);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException ex) {
+            System.err.println("XMLStreamException: " + ex.getMessage());
+        }
+        input.close();
+    }
+}
@@ -0,0 +1,210 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import projectutilities.WikipediaSpecialExportProcessor.WikiPage;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ArrayBlockingQueue;
+import javax.xml.stream.XMLStreamException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * SpecialExportPipeline - a multi-core producer/consumer conversion pipeline.
+ * 
+ * One reader thread pulls the raw pages off of the export, a pool of workers
+ * extracts the categories, anchors and paragraphs of the pages (each with its
+ * own tokenizer), and the calling thread writes the processed pages, either in
+ * the order of the export or in the order the workers finish them.
+ * 
+ * The number of pages in flight (read but not yet written) is bounded, so a
+ * slow writer or one slow page holds the reader back instead of filling heap.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class SpecialExportPipeline {
+    /**
+     * Where the processed pages come out of the pipeline.
+     */
+    interface PageSink {
+        /**
+         * @param page the processed page
+         * @param ordinal position of the page among all pages of the export
+         */
+        void write(WikiPage page, long ordinal) throws XMLStreamException, IOException;
+    }
+
+    /**
+     * A page on its way through the pipeline, tagged with its export position.
+     */
+    private static final class Task {
+        final long sequence;
+        final long ordinal;
+        SpecialExportPageReader.RawPage raw;
+        WikiPage page;
+        Task(long sequence, SpecialExportPageReader.RawPage raw) {
+            this.sequence = sequence;
+            this.ordinal = (raw == null) ? -1 : raw.ordinal;
+            this.raw = raw;
+        }
+    }
+
+    /**
+     * Marks the end of the pages, one is queued for (and by) every worker.
+     */
+    private static final Task END = new Task(-1, null);
+
+    /**
+     * Number of pages allowed in flight for each of the workers.
+     */
+    private static final int PAGES_IN_FLIGHT_PER_WORKER = 16;
+
+    private final int workers;
+    private final boolean ordered;
+    private final Semaphore inFlight;
+    private final BlockingQueue<Task> pending;
+    private final BlockingQueue<Task> done;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * @param workers number of worker threads extracting the pages
+     * @param ordered true to write the pages in the order of the export
+     */
+    SpecialExportPipeline(int workers, boolean ordered) {
+        this.workers = workers;
+        this.ordered = ordered;
+        int capacity = workers * PAGES_IN_FLIGHT_PER_WORKER;
+        inFlight = new Semaphore(capacity);
+        pending = new ArrayBlockingQueue<>(capacity + workers);
+        done = new ArrayBlockingQueue<>(capacity + workers);
+    }
+
+    /**
+     * Runs every page of the reader through the workers and into the sink.
+     * 
+     * @param reader the export to read the pages from
+     * @param sink where the processed pages are written to
+     * @return the number of pages that were written
+     * @throws XMLStreamException if the export could not be read or written
+     * @throws IOException if the processed export could not be written
+     */
+    long run(SpecialExportPageReader reader, PageSink sink)
+            throws XMLStreamException, IOException {
+        ExecutorService threads = Executors.newFixedThreadPool(workers + 1);
+        try {
+            threads.execute(() -> read(reader));
+            for (int i = 0; i < workers; i++) {
+                threads.execute(this::work);
+            }
+            return write(sink);
+        } finally {
+            threads.shutdownNow(); // stops the reader and workers on a failure
+        }
+    }
+
+    private void read(SpecialExportPageReader reader) {
+        try {
+            long sequence = 0;
+            SpecialExportPageReader.RawPage raw;
+            while ((raw = reader.nextPage()) != null) {
+                inFlight.acquire();
+                pending.put(new Task(sequence++, raw));
+            }
+        } catch (InterruptedException ex) {
+            return; // the writer gave up on the conversion
+        } catch (XMLStreamException | RuntimeException | Error ex) {
+            failure.compareAndSet(null, ex);
+        }
+        try {
+            for (int i = 0; i < workers; i++) {
+                pending.put(END);
+            }
+        } catch (InterruptedException ex) {
+            // the writer gave up on the conversion
+        }
+    }
+
+    private void work() {
+        WikitextTokenizer tokenizer = new WikitextTokenizer();
+        try {
+            Task task;
+            while ((task = pending.take()) != END) {
+                task.page = WikipediaSpecialExportProcessor.processPage(tokenizer, task.raw);
+                task.raw = null;
+                done.put(task);
+            }
+        } catch (InterruptedException ex) {
+            return; // the writer gave up on the conversion
+        } catch (RuntimeException | Error ex) {
+            failure.compareAndSet(null, ex);
+        }
+        try {
+            done.put(END);
+        } catch (InterruptedException ex) {
+            // the writer gave up on the conversion
+        }
+    }
+
+    private long write(PageSink sink) throws XMLStreamException, IOException {
+        HashMap<Long, Task> early = new HashMap<>(); // finished ahead of their turn
+        long written = 0;
+        int finished = 0;
+        try {
+            while (finished < workers && failure.get() == null) {
+                Task task = done.take();
+                if (task == END) {
+                    finished++;
+                } else if (!ordered) {
+                    write(sink, task);
+                    written++;
+                } else {
+                    early.put(task.sequence, task);
+                    Task next;
+                    while ((next = early.remove(written)) != null) {
+                        write(sink, next);
+                        written++;
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("conversion interrupted");
+        }
+        throwFailure();
+        return written;
+    }
+
+    private void write(PageSink sink, Task task) throws XMLStreamException, IOException {
+        sink.write(task.page, task.ordinal);
+        inFlight.release();
+    }
+
+    private void throwFailure() throws XMLStreamException {
+        Throwable cause = failure.get();
+        if (cause instanceof XMLStreamException) throw (XMLStreamException) cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+    }
+}
@@ -17,15 +17,45 @@
  */
 package projectutilities;
 
-import edu.stanford.nlp.tagger.maxent.MaxentTagger;
-import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.ObjLongConsumer;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Executors;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Future;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.io.File;
 
 /**
  * StandfordSpeechTaggerAndCounter.
+ * 
+ * The tagger model is loaded once (see SharedTagger), when the first text is
+ * tagged or ahead of time by preloadTagger, and shared by every thread (the
+ * MaxentTagger itself is thread safe), and each thread counts the terms it
+ * tagged into its own table, so tagNormalizedString may be called from several
+ * threads at once with no locking. The tables are summed for the report, which
+ * (like resetWordCount) must not run while texts are still being tagged.
+ * 
+ * The counts are kept by class label (objects, women, men, ...), the methods
+ * without a label count into a default class, so the texts of several classes
+ * can be tagged at the same time, and each class reports its own counts.
+ * 
+ * With a spill threshold set, a table that has grown to the threshold is
+ * written to disk as a sorted run and cleared (see TermCountRuns), and the
+ * report merges the runs, so the counts are still exact, but the heap used no
+ * longer grows with the vocabulary.
+ * 
+ * With approximate counting set, the terms are counted in a fixed amount of
+ * memory instead (see ApproximateTermCounts), and the report holds only the
+ * most frequent terms, with estimated counts.
  *
  * @author W. Hatfield
  * @author U. Jaimini
@@ -33,10 +63,161 @@ import java.io.File;
  */
 public class StandfordSpeechTaggerAndCounter {
     
+    /**
+     * Reports written to a file with this extension are in the binary form.
+     */
+    public static final String BINARY_REPORT_EXTENSION = TermCountReport.BINARY_EXTENSION;
+    
     private static final String MODELFILE =
             "jars/stanford-postagger-3.6.0/english-left3words-distsim.tagger";
-    private static final MaxentTagger TAGGER = new MaxentTagger(MODELFILE);
-    private static final HashMap<String, Integer> MAP = new HashMap<>();
+    
+    /**
+     * Identifies the tagger model, the cached results of another model (or of
+     * a replaced model file) are not used.
+     */
+    private static final String MODEL_ID = MODELFILE + ":" + new File(MODELFILE).length()
+            + ":" + new File(MODELFILE).lastModified();
+    
+    /**
+     * The class label of the counts of the methods that take no label.
+     */
+    private static final String DEFAULT_LABEL = "";
+    
+    /**
+     * The term counts of every class label, one table for every thread that
+     * has tagged texts of the class. A thread finds its own tables in MAP.
+     */
+    private static final HashMap<String, ArrayList<TaggedTermCounts>> SHARDS = new HashMap<>();
+    private static final ThreadLocal<HashMap<String, TaggedTermCounts>> MAP =
+            ThreadLocal.withInitial(HashMap::new);
+    
+    /**
+     * The counts of every class label that were spilled to disk (guarded by
+     * the SHARDS lock).
+     */
+    private static final HashMap<String, TermCountRuns> RUNS = new HashMap<>();
+    
+    /**
+     * The approximate counts of every class label, one for every thread, when
+     * approximate counting is set (guarded by the SHARDS lock).
+     */
+    private static final HashMap<String, ArrayList<ApproximateTermCounts>> SKETCHES =
+            new HashMap<>();
+    private static final ThreadLocal<HashMap<String, ApproximateTermCounts>> SKETCH =
+            ThreadLocal.withInitial(HashMap::new);
+    
+    /**
+     * Size the segments of the tagged text stores grow to, before rolling over.
+     */
+    private static final long SEGMENT_SIZE = 64L << 20;
+    
+    /**
+     * Number of texts queued for tagging for each of the tagging threads.
+     */
+    private static final int TEXTS_AHEAD_PER_THREAD = 4;
+    
+    /**
+     * How the reports are written, see TermCountReport.
+     */
+    private final TermCountReport REPORT = new TermCountReport();
+    
+    private int threadCount = 1;
+    private double duplicateThreshold;  // zero to tag every text
+    private boolean reuseDuplicates;
+    private int duplicateWindow;
+    private ExecutorService taggers;
+    
+    /**
+     * The results of earlier tagging, null when no cache has been set.
+     */
+    private volatile TagResultCache cache;
+    
+    private int spillThreshold;     // zero to keep all of the counts in memory
+    private String spillDirectory;
+    
+    private double approximateEpsilon;  // zero to count exactly
+    private double approximateDelta;
+    private int heavyHitters;
+    
+    /**
+     * Starts loading the tagger model on a background thread, so that it is
+     * (or is closer to being) loaded when the first text is tagged. With warm
+     * up, a few sentences are tagged after loading to get the JIT going.
+     * 
+     * @param warmUp true to warm up the tagger once it is loaded
+     */
+    public void preloadTagger(boolean warmUp) {
+        SharedTagger.preload(MODELFILE, warmUp);
+    }
+    
+    /**
+     * Returns the load time, warm up time and first tag latency of the tagger.
+     * 
+     * @return 
+     */
+    public String getTaggerMetrics() {
+        return SharedTagger.metrics();
+    }
+    
+    /**
+     * Sets the number of threads tagging the texts handed to tagTexts (and to
+     * the methods tagging several texts), one (the default) tags the texts on
+     * the calling thread. The threads share the one loaded tagger model.
+     * 
+     * @param threads number of tagging threads, the number of cores at most
+     */
+    public synchronized void setThreadCount(int threads) {
+        threads = Math.max(1, threads);
+        if (threads == threadCount) return;
+        if (taggers != null) taggers.shutdown();
+        taggers = null;
+        threadCount = threads;
+    }
+    
+    private synchronized ExecutorService taggers() {
+        if (taggers == null) {
+            taggers = Executors.newFixedThreadPool(threadCount, runnable -> {
+                Thread thread = new Thread(runnable, "pos-tagger");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return taggers;
+    }
+    
+    /**
+     * Sets the file caching the tagged texts, so that a text that has already
+     * been tagged (by the same tagger model) is looked up instead of tagged
+     * again, which makes most of the texts of a rerun over an unchanged or
+     * mostly unchanged export cache hits. The most recently used results are
+     * also kept in memory. The counts of cached texts are updated as usual.
+     * 
+     * @param filename the cache file, created if it does not exist
+     * @param memoryEntries number of tagged texts kept in memory
+     */
+    public synchronized void setTagCache(String filename, int memoryEntries) {
+        closeTagCache();
+        try {
+            cache = new TagResultCache(filename, MODEL_ID, Math.max(0, memoryEntries));
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * Closes the tag cache (if one was set) and reports its hits and misses.
+     */
+    public synchronized void closeTagCache() {
+        if (cache == null) return;
+        System.err.println("Tag cache: " + cache.getHits() + " hits, "
+                + cache.getMisses() + " misses");
+        try {
+            cache.close();
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+        }
+        cache = null;
+    }
     
     /**
      * 
@@ -53,40 +234,471 @@ public class StandfordSpeechTaggerAndCounter {
         }
     }
     
+    /**
+     * Tags the texts one at a time, as the iterator hands them out, and writes
+     * them into a single file separated by spaces, so that the texts are never
+     * joined into one giant string, and the tagging starts with the first one.
+     * 
+     * @param texts
+     * @param filename 
+     */
+    public void tagTextsAndWriteFile(Iterator<String> texts, String filename) {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(new File(filename)))) {
+            tagTexts(texts, (tagged, index) -> {
+                try {
+                    bw.write(tagged);
+                    bw.write(' ');
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (IOException | UncheckedIOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * Tags the texts and packs them into the segment store of the directory
+     * (see TaggedSegmentStore), replacing the store that was there, where the
+     * tagged texts can be looked up by the position of the text, or streamed.
+     * 
+     * @param texts
+     * @param directory 
+     */
+    public void tagTextsAndWriteSegments(Iterator<String> texts, String directory) {
+        tagTextsAndWriteSegments(texts, directory, DEFAULT_LABEL);
+    }
+    
+    /**
+     * Tags the texts of a class into the segment store of the directory, and
+     * counts their terms for that class, see tagTexts(texts, label, consumer).
+     * 
+     * @param texts
+     * @param directory 
+     * @param label the class of the texts, for writeReport(filename, label)
+     */
+    public void tagTextsAndWriteSegments(Iterator<String> texts, String directory, String label) {
+        try (TaggedSegmentWriter store = new TaggedSegmentWriter(directory, SEGMENT_SIZE)) {
+            tagTexts(texts, label, (tagged, index) -> {
+                try {
+                    store.append(tagged);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (IOException | UncheckedIOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * Sets the texts handed to tagTexts to be compared with the texts before
+     * them (see NearDuplicateIndex), and a text that is nearly the same as an
+     * earlier one (boilerplate, stub notices, repeated templates) is not
+     * tagged. Its terms are either counted with the tags of the earlier text
+     * (which is handed to the consumer in its place), or the text is skipped,
+     * leaving it out of the counts and of the texts handed to the consumer.
+     * 
+     * @param threshold the similarity (0 to 1) of duplicates, zero (default)
+     * to tag every text
+     * @param reuse true to count duplicates with the earlier tags, false to skip them
+     * @param window number of the latest distinct texts that are compared with
+     */
+    public void setNearDuplicateDetection(double threshold, boolean reuse, int window) {
+        if (threshold > 0) NearDuplicateIndex.check(threshold, window);
+        duplicateThreshold = Math.max(0, threshold);
+        reuseDuplicates = reuse;
+        duplicateWindow = window;
+    }
+    
+    /**
+     * Tags (and counts) the texts on the tagging threads, and hands the tagged
+     * texts to the consumer on the calling thread, in the order of the texts,
+     * along with the position of the text. Only a few texts for each thread
+     * are taken from the iterator ahead of the consumer.
+     * 
+     * @param texts the normalized texts to tag
+     * @param consumer receives each tagged text and its position
+     */
+    public void tagTexts(Iterator<String> texts, ObjLongConsumer<String> consumer) {
+        tagTexts(texts, DEFAULT_LABEL, consumer);
+    }
+    
+    /**
+     * Tags the texts of a class, like tagTexts(texts, consumer), counting the
+     * terms for that class only. The texts of different classes can be tagged
+     * at the same time (from different threads calling this), they share the
+     * tagging threads, and each class keeps counts of its own.
+     * 
+     * @param texts the normalized texts to tag
+     * @param label the class of the texts, for example "women"
+     * @param consumer receives each tagged text and its position
+     */
+    public void tagTexts(Iterator<String> texts, String label, ObjLongConsumer<String> consumer) {
+        if (threadCount == 1) {
+            NearDuplicateIndex<String> duplicates = nearDuplicateIndex();
+            long index = 0;
+            long duplicateCount = 0;
+            while (texts.hasNext()) {
+                String text = texts.next();
+                String tagged;
+                if (duplicates == null) {
+                    tagged = tagNormalizedString(text, label);
+                } else {
+                    int[] signature = duplicates.signature(text);
+                    tagged = duplicates.find(signature);
+                    if (tagged == null) {
+                        tagged = tagNormalizedString(text, label);
+                        duplicates.add(signature, tagged);
+                    } else {
+                        duplicateCount++;
+                        if (!reuseDuplicates) continue;
+                        countTagged(tagged, label);
+                    }
+                }
+                consumer.accept(tagged, index++);
+            }
+            reportDuplicates(duplicates, duplicateCount, label);
+            return;
+        }
+        ExecutorService threads = taggers();
+        ArrayDeque<FutureTask<String>> ahead = new ArrayDeque<>();
+        HashSet<FutureTask<String>> reused = new HashSet<>(); // run on this thread
+        int window = threadCount * TEXTS_AHEAD_PER_THREAD;
+        NearDuplicateIndex<Future<String>> duplicates = nearDuplicateIndex();
+        long index = 0;
+        long duplicateCount = 0;
+        try {
+            while (texts.hasNext() || !ahead.isEmpty()) {
+                while (ahead.size() < window && texts.hasNext()) {
+                    String text = texts.next();
+                    FutureTask<String> tagged = new FutureTask<>(() -> tagNormalizedString(text, label));
+                    if (duplicates == null) {
+                        threads.execute(tagged);
+                        ahead.add(tagged);
+                        continue;
+                    }
+                    int[] signature = duplicates.signature(text);
+                    Future<String> earlier = duplicates.find(signature);
+                    if (earlier == null) {
+                        threads.execute(tagged);
+                        duplicates.add(signature, tagged);
+                        ahead.add(tagged);
+                        continue;
+                    }
+                    duplicateCount++;
+                    if (!reuseDuplicates) continue;
+                    // waiting on the earlier text from a tagging thread could take every
+                    // thread of the pool, so the duplicate is counted when its turn comes
+                    FutureTask<String> reuse = new FutureTask<>(() -> {
+                        String earlierTagged = earlier.get();
+                        countTagged(earlierTagged, label);
+                        return earlierTagged;
+                    });
+                    reused.add(reuse);
+                    ahead.add(reuse);
+                }
+                if (ahead.isEmpty()) continue; // the last texts were skipped
+                FutureTask<String> next = ahead.poll();
+                if (reused.remove(next)) next.run();
+                consumer.accept(next.get(), index++);
+            }
+            reportDuplicates(duplicates, duplicateCount, label);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("tagging interrupted", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            for (Future<String> future : ahead) {
+                future.cancel(true); // the consumer or the tagger failed
+            }
+        }
+    }
+    
+    private <T> NearDuplicateIndex<T> nearDuplicateIndex() {
+        if (duplicateThreshold <= 0) return null;
+        return new NearDuplicateIndex<>(duplicateThreshold, duplicateWindow);
+    }
+    
+    private void reportDuplicates(NearDuplicateIndex<?> duplicates, long count, String label) {
+        if (duplicates == null) return;
+        System.err.println("Near duplicate texts" + (label.isEmpty() ? "" : " of " + label)
+                + ": " + count + (reuseDuplicates ? " counted with earlier tags" : " skipped"));
+    }
+    
     /**
      * tagNormalizedString - takes a single String argument, that should have
      * been normalized by the WikipediaSpecialExportProcessor, then completes
      * the Part-of-Speech Tagging using Stanford Maximum Entropy Tagger, after
-     * which the terms are counted and added to a hash map to keep count.
+     * which the terms are counted (in place, see TaggedTermCounts) to keep count.
+     * With a tag cache set, the text is only tagged if it is not in the cache.
      * 
      * @param toTag
      * @return 
      */
     public String tagNormalizedString(String toTag) {
-        String taggedString = TAGGER.tagString(toTag);
+        return tagNormalizedString(toTag, DEFAULT_LABEL);
+    }
+    
+    /**
+     * Tags the normalized text, and counts its terms for the class label.
+     * 
+     * @param toTag
+     * @param label the class of the text
+     * @return 
+     */
+    public String tagNormalizedString(String toTag, String label) {
+        String taggedString = tagThroughCache(toTag);
         
-        String[] taggedStringArray = taggedString.split(" ");
-        for (String toCheck : taggedStringArray) {
-            Integer wordCount = MAP.get(toCheck);
-            wordCount = (wordCount != null) ? wordCount + 1 : 1;
-            MAP.put(toCheck, wordCount);
-        }
+        countTagged(taggedString, label);
         
         return taggedString;
     }
     
     /**
-     *
+     * Counts the terms of a tagged text for the class, into this thread's
+     * counts (approximate, or exact and spilled once past the threshold).
+     * 
+     * @param taggedString
+     * @param label 
+     */
+    private void countTagged(String taggedString, String label) {
+        if (approximateEpsilon > 0) {
+            sketchOf(label).countTagged(taggedString);
+            return;
+        }
+        TaggedTermCounts counts = countsOf(label);
+        counts.countTagged(taggedString);
+        if (spillThreshold > 0 && counts.size() >= spillThreshold) {
+            spill(label, counts);
+        }
+    }
+    
+    /**
+     * Returns the counts of the class for the calling thread, the first time a
+     * thread counts a class its table is made and added to the class shards.
+     * 
+     * @param label
+     * @return 
+     */
+    private static TaggedTermCounts countsOf(String label) {
+        HashMap<String, TaggedTermCounts> map = MAP.get();
+        TaggedTermCounts counts = map.get(label);
+        if (counts == null) {
+            counts = new TaggedTermCounts();
+            map.put(label, counts);
+            synchronized (SHARDS) {
+                SHARDS.computeIfAbsent(label, key -> new ArrayList<>()).add(counts);
+            }
+        }
+        return counts;
+    }
+    
+    /**
+     * Returns the approximate counts of the class for the calling thread.
+     * 
+     * @param label
+     * @return 
+     */
+    private ApproximateTermCounts sketchOf(String label) {
+        HashMap<String, ApproximateTermCounts> map = SKETCH.get();
+        ApproximateTermCounts counts = map.get(label);
+        if (counts == null) {
+            counts = new ApproximateTermCounts(approximateEpsilon, approximateDelta, heavyHitters);
+            map.put(label, counts);
+            synchronized (SHARDS) {
+                SKETCHES.computeIfAbsent(label, key -> new ArrayList<>()).add(counts);
+            }
+        }
+        return counts;
+    }
+    
+    /**
+     * Sets the terms to be counted approximately, in a fixed amount of memory
+     * (a Count-Min Sketch and the heavyHitters most frequent terms), for quick
+     * looks at corpora too large to count exactly. A count is over the true
+     * count by at most epsilon times the total count, with probability 1 -
+     * delta, and the reports hold the heavy hitters only. Set it before
+     * tagging, an epsilon of zero (default) counts exactly.
+     * 
+     * @param epsilon the error of the counts, as a fraction of the total count
+     * @param delta the probability of a count being off by more than that
+     * @param heavyHitters number of the most frequent terms that are reported
+     */
+    public void setApproximateCounting(double epsilon, double delta, int heavyHitters) {
+        if (epsilon > 0) ApproximateTermCounts.check(epsilon, delta, heavyHitters);
+        approximateEpsilon = Math.max(0, epsilon);
+        approximateDelta = delta;
+        this.heavyHitters = heavyHitters;
+    }
+    
+    /**
+     * Sets the number of distinct terms a count table may hold before it is
+     * spilled to disk as a sorted run, for counting vocabularies that do not
+     * fit in the heap. Set it before tagging, the counts are exact either way.
+     * 
+     * @param distinctTerms the spill threshold, zero (default) to never spill
+     * @param directory where the runs are written
+     */
+    public void setSpillThreshold(int distinctTerms, String directory) {
+        spillThreshold = Math.max(0, distinctTerms);
+        spillDirectory = directory;
+    }
+    
+    /**
+     * Spills the counts of the class to disk, on failure the counts are kept
+     * (and go on growing) in memory.
+     * 
+     * @param label
+     * @param counts
+     */
+    private void spill(String label, TaggedTermCounts counts) {
+        TermCountRuns runs;
+        synchronized (SHARDS) {
+            runs = RUNS.computeIfAbsent(label, key -> new TermCountRuns(spillDirectory));
+        }
+        try {
+            runs.spill(counts);
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+        }
+    }
+    
+    private String tagThroughCache(String toTag) {
+        TagResultCache tagCache = cache;
+        if (tagCache == null) return SharedTagger.tagString(MODELFILE, toTag);
+        try {
+            String tagged = tagCache.get(toTag);
+            if (tagged != null) return tagged;
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+        }
+        String tagged = SharedTagger.tagString(MODELFILE, toTag);
+        try {
+            tagCache.put(toTag, tagged);
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+        }
+        return tagged;
+    }
+    
+    /**
+     * Sums the counts of every thread for the class into a single table.
+     * 
+     * @param label
+     * @return 
+     */
+    private static TaggedTermCounts mergeWordCounts(String label) {
+        synchronized (SHARDS) {
+            ArrayList<TaggedTermCounts> shards = SHARDS.get(label);
+            if (shards == null) return new TaggedTermCounts();
+            if (shards.size() == 1) return shards.get(0);
+            TaggedTermCounts merged = new TaggedTermCounts();
+            for (TaggedTermCounts shard : shards) {
+                merged.addAll(shard);
+            }
+            return merged;
+        }
+    }
+    
+    /**
+     * Sums the approximate counts of every thread for the class.
+     * 
+     * @param label
+     * @return the counts, or null if none of the class were counted approximately
+     */
+    private static ApproximateTermCounts mergeSketches(String label) {
+        synchronized (SHARDS) {
+            ArrayList<ApproximateTermCounts> sketches = SKETCHES.get(label);
+            if (sketches == null || sketches.isEmpty()) return null;
+            if (sketches.size() == 1) {
+                return (sketches.get(0).total() == 0) ? null : sketches.get(0);
+            }
+            ApproximateTermCounts first = sketches.get(0);
+            ApproximateTermCounts merged = new ApproximateTermCounts(first.epsilon(),
+                    first.delta(), first.heavyHitterCapacity());
+            for (ApproximateTermCounts sketch : sketches) {
+                merged.addAll(sketch);
+            }
+            return (merged.total() == 0) ? null : merged;
+        }
+    }
+    
+    /**
+     * Sets whether the reports are sorted by count (highest first, then by the
+     * term), rather than written in the order of the count table.
+     * 
+     * @param sorted true to sort the reports
+     */
+    public void setReportSorted(boolean sorted) {
+        REPORT.sorted = sorted;
+    }
+    
+    /**
+     * Limits the reports to the terms with the K highest counts (sorted).
+     * 
+     * @param k number of terms reported, zero (default) for all of them
+     */
+    public void setReportTopK(int k) {
+        REPORT.topK = Math.max(0, k);
+    }
+    
+    /**
+     * Leaves the terms counted less than the minimum out of the reports.
+     * 
+     * @param minimum the lowest count reported
+     */
+    public void setReportMinimumCount(int minimum) {
+        REPORT.minimumCount = minimum;
+    }
+    
+    /**
+     * Writes the "word_TAG -> n" report of the counts (in UTF-8), in the order
+     * and with the terms set by the report setters. A filename ending with
+     * BINARY_REPORT_EXTENSION is written in a compact binary form, which the
+     * TermCountProbabilityModel(filename) constructor loads directly.
+     * 
      * @param filename
      */
     public void writeReport(String filename) {
+        writeReport(filename, DEFAULT_LABEL);
+    }
+    
+    /**
+     * Writes the report of the counts of a class, the texts of the class must
+     * have been tagged (other classes may still be tagging).
+     * 
+     * @param filename
+     * @param label the class of the report
+     */
+    public void writeReport(String filename, String label) {
         try {
-            FileWriter fw = new FileWriter(new File(filename));
-            for (Entry<String, Integer> entry : MAP.entrySet()) {
-                String toWrite = entry.getKey() + " -> " + entry.getValue();
-                fw.write(toWrite + "\n");
+            ApproximateTermCounts sketch = mergeSketches(label);
+            if (sketch != null) {
+                REPORT.write(sketch::forEachHeavyHitter, filename);
+                System.err.println("Approximate counts of " + filename + ": at most "
+                        + sketch.errorBound() + " over, with probability " + sketch.confidence());
+                return;
             }
-            fw.close();
+            TermCountRuns runs;
+            synchronized (SHARDS) {
+                runs = RUNS.get(label);
+            }
+            if (runs == null) {
+                REPORT.write(mergeWordCounts(label), filename);
+                return;
+            }
+            // the rest of the counts join the runs, to be merged in one pass
+            synchronized (SHARDS) {
+                for (TaggedTermCounts shard : SHARDS.getOrDefault(label, new ArrayList<>())) {
+                    runs.spill(shard);
+                }
+            }
+            REPORT.write(runs::forEachMerged, filename);
         } catch (IOException ex) {
             System.err.println("IOException: " + ex.getMessage());
         }
@@ -95,6 +707,41 @@ public class StandfordSpeechTaggerAndCounter {
     /**
      * Clears the collection of processed words and their counts.
      */
-    public void resetWordCount() { MAP.clear(); }
+    public void resetWordCount() {
+        synchronized (SHARDS) {
+            for (ArrayList<TaggedTermCounts> shards : SHARDS.values()) {
+                for (TaggedTermCounts shard : shards) {
+                    shard.clear();
+                }
+            }
+            for (TermCountRuns runs : RUNS.values()) {
+                runs.clear();
+            }
+            RUNS.clear();
+            for (ArrayList<ApproximateTermCounts> sketches : SKETCHES.values()) {
+                for (ApproximateTermCounts sketch : sketches) {
+                    sketch.clear();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Clears the words and counts of a single class.
+     * 
+     * @param label the class to clear
+     */
+    public void resetWordCount(String label) {
+        synchronized (SHARDS) {
+            for (TaggedTermCounts shard : SHARDS.getOrDefault(label, new ArrayList<>())) {
+                shard.clear();
+            }
+            TermCountRuns runs = RUNS.remove(label);
+            if (runs != null) runs.clear();
+            for (ApproximateTermCounts sketch : SKETCHES.getOrDefault(label, new ArrayList<>())) {
+                sketch.clear();
+            }
+        }
+    }
     
 }
@@ -0,0 +1,233 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.io.IOException;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Map.Entry;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Arrays;
+
+/**
+ * TagResultCache - tagged texts, looked up by the text they were tagged from.
+ * 
+ * A text is looked up by the SHA-256 hash of the tagger model id and the text,
+ * so a changed text (or a different tagger model) is a miss, and an unchanged
+ * text is a hit on every rerun. The cache has two tiers:
+ * 
+ *   memory : the most recently used results, least recently used dropped
+ *   disk   : every result, appended to a single file of records
+ *            hash(32 bytes) length(int) tagged text(UTF-8)
+ * 
+ * Only the hashes and file offsets of the disk tier are kept in memory. The
+ * cache may be used by several threads at once.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class TagResultCache implements AutoCloseable {
+
+    private static final byte[] MAGIC = {'T', 'A', 'G', 'C'};
+    private static final int HASH_SIZE = 32;
+    private static final int RECORD_HEADER = HASH_SIZE + 4;
+
+    /**
+     * The hash of a text, as the key of the memory tier and of the disk index.
+     */
+    private static final class Key {
+        final byte[] hash;
+        Key(byte[] hash) {
+            this.hash = hash;
+        }
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(hash, ((Key) other).hash);
+        }
+        @Override
+        public int hashCode() {
+            return (hash[0] & 0xff) << 24 | (hash[1] & 0xff) << 16
+                    | (hash[2] & 0xff) << 8 | (hash[3] & 0xff);
+        }
+    }
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex); // every jre has sha-256
+        }
+    });
+
+    private final byte[] modelId;
+    private final LinkedHashMap<Key, String> memory;
+    private final HashMap<Key, Long> disk = new HashMap<>(); // offset of record
+    private final FileChannel channel;
+    private long end;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Opens (or creates) the cache file and reads the hashes of its records,
+     * a record cut short by a crash at the end of the file is dropped.
+     * 
+     * @param filename path of the cache file
+     * @param modelId identifies the tagger model the results come from
+     * @param memoryEntries results kept in memory
+     * @throws IOException if the cache file could not be opened
+     */
+    TagResultCache(String filename, String modelId, final int memoryEntries) throws IOException {
+        this.modelId = modelId.getBytes(StandardCharsets.UTF_8);
+        memory = new LinkedHashMap<Key, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Entry<Key, String> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            readIndex();
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private void readIndex() throws IOException {
+        long size = channel.size();
+        if (size < MAGIC.length) {
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(MAGIC), 0);
+            end = MAGIC.length;
+            return;
+        }
+        if (!Arrays.equals(read(0, MAGIC.length).array(), MAGIC)) {
+            throw new IOException("not a tag cache file");
+        }
+        long at = MAGIC.length;
+        while (at + RECORD_HEADER <= size) {
+            ByteBuffer header = read(at, RECORD_HEADER);
+            byte[] hash = new byte[HASH_SIZE];
+            header.get(hash);
+            int length = header.getInt();
+            if (length < 0 || at + RECORD_HEADER + length > size) break;
+            disk.put(new Key(hash), at);
+            at += RECORD_HEADER + length;
+        }
+        if (at != size) channel.truncate(at); // the last record was cut short
+        end = at;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("unexpected end of tag cache");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private Key keyOf(String text) {
+        MessageDigest digest = SHA256.get();
+        digest.update(modelId);
+        digest.update((byte) 0);
+        return new Key(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Looks up the tagged form of the text, in memory first and then on disk.
+     * 
+     * @param text the normalized text
+     * @return the tagged text, or null when the text has not been tagged yet
+     * @throws IOException if the disk tier could not be read
+     */
+    String get(String text) throws IOException {
+        Key key = keyOf(text);
+        String tagged;
+        Long offset;
+        synchronized (this) {
+            tagged = memory.get(key);
+            offset = (tagged == null) ? disk.get(key) : null;
+        }
+        if (tagged == null && offset != null) {
+            int length = read(offset + HASH_SIZE, 4).getInt();
+            tagged = new String(read(offset + RECORD_HEADER, length).array(),
+                    StandardCharsets.UTF_8);
+            synchronized (this) {
+                memory.put(key, tagged);
+            }
+        }
+        (tagged == null ? misses : hits).incrementAndGet();
+        return tagged;
+    }
+
+    /**
+     * Adds the tagged form of the text to both tiers.
+     * 
+     * @param text the normalized text
+     * @param tagged the tagged text
+     * @throws IOException if the disk tier could not be written
+     */
+    void put(String text, String tagged) throws IOException {
+        Key key = keyOf(text);
+        byte[] bytes = tagged.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + bytes.length);
+        record.put(key.hash).putInt(bytes.length).put(bytes).flip();
+        synchronized (this) {
+            memory.put(key, tagged);
+            if (disk.containsKey(key)) return; // tagged by another thread too
+            long at = end;
+            while (record.hasRemaining()) {
+                channel.write(record, at + record.position());
+            }
+            disk.put(key, at);
+            end += record.capacity();
+        }
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Closes the cache file, every result put has already been written to it.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,257 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.HashSet;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.io.File;
+
+/**
+ * TaggedSegmentStore - the tagged texts of a class directory, packed together.
+ * 
+ * Rather than a file for every tagged text, the texts of a directory are packed
+ * into a few large, append-only segment files, and an index file holds the
+ * position of every text:
+ * 
+ *   segment-000000.tagged ... : length(int) UTF-8 text, one after another
+ *   segments.index            : position(long) of every text, by id
+ * 
+ * where a position is the number of the segment (upper 24 bits) and the offset
+ * of the text in the segment (lower 40 bits). A text is looked up by its id
+ * through the index, and the whole store is streamed by reading the segments
+ * in order, without the index. The store is written by TaggedSegmentWriter.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public final class TaggedSegmentStore implements AutoCloseable {
+
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String SEGMENT_SUFFIX = ".tagged";
+    static final String INDEX_FILE = "segments.index";
+
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    private static final int INPUT_BUFFER_SIZE = 1 << 20;
+
+    private final Path directory;
+    private final FileChannel index;
+    private final long size;
+    private FileChannel[] segments = new FileChannel[0];   // opened when needed
+    private final HashSet<DataInputStream> streams = new HashSet<>(); // of the iterators
+
+    /**
+     * Opens the store of the directory for reading.
+     * 
+     * @param directory the directory of the store
+     * @throws IOException if the index of the store could not be opened
+     */
+    public TaggedSegmentStore(String directory) throws IOException {
+        this.directory = Paths.get(directory);
+        index = FileChannel.open(this.directory.resolve(INDEX_FILE), StandardOpenOption.READ);
+        size = index.size() / 8;
+    }
+
+    static String segmentName(int segment) {
+        String number = Integer.toString(segment);
+        while (number.length() < 6) number = '0' + number;
+        return SEGMENT_PREFIX + number + SEGMENT_SUFFIX;
+    }
+
+    static long position(int segment, long offset) {
+        return (long) segment << OFFSET_BITS | offset;
+    }
+
+    /**
+     * Returns the number of texts in the store.
+     * 
+     * @return 
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Looks up a tagged text by its id.
+     * 
+     * @param id the id of the text, the order it was written in from zero
+     * @return the tagged text
+     * @throws IOException if the text could not be read
+     */
+    public String get(long id) throws IOException {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("text " + id + " of " + size);
+        }
+        long position = read(index, id * 8, 8).getLong();
+        FileChannel segment = segment((int) (position >>> OFFSET_BITS));
+        long offset = position & OFFSET_MASK;
+        int length = read(segment, offset, 4).getInt();
+        return new String(read(segment, offset + 4, length).array(), StandardCharsets.UTF_8);
+    }
+
+    private synchronized FileChannel segment(int number) throws IOException {
+        if (number >= segments.length) {
+            FileChannel[] grown = new FileChannel[number + 1];
+            System.arraycopy(segments, 0, grown, 0, segments.length);
+            segments = grown;
+        }
+        if (segments[number] == null) {
+            segments[number] = FileChannel.open(directory.resolve(segmentName(number)),
+                    StandardOpenOption.READ);
+        }
+        return segments[number];
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("unexpected end of tagged segment store");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Streams every text of the store in order, reading the segments one after
+     * another through a large buffer. Read errors, including a segment cut off
+     * in the middle of a text, are thrown by the iterator as
+     * UncheckedIOExceptions, after which the iterator keeps throwing the same
+     * error. A segment an iterator was left reading is closed along with the
+     * store.
+     * 
+     * @return the tagged texts, in the order they were written
+     */
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private DataInputStream in;
+            private int segment;
+            private String next;
+            private UncheckedIOException failure;
+
+            @Override
+            public boolean hasNext() {
+                if (failure != null) throw failure;
+                try {
+                    while (next == null) {
+                        if (in == null) {
+                            File file = directory.resolve(segmentName(segment)).toFile();
+                            if (!file.isFile()) return false;
+                            in = openStream(file);
+                        }
+                        int first = in.read();
+                        if (first < 0) {
+                            // the segment ended on a text boundary
+                            closeStream(in);
+                            in = null;
+                            segment++;
+                            continue;
+                        }
+                        byte[] bytes;
+                        try {
+                            int length = first << 24 | in.readUnsignedByte() << 16
+                                    | in.readUnsignedShort();
+                            if (length < 0) {
+                                throw new IOException("tagged segment " + segment
+                                        + " holds a text of negative length " + length);
+                            }
+                            bytes = new byte[length];
+                            in.readFully(bytes);
+                        } catch (EOFException ex) {
+                            throw new IOException("tagged segment " + segment
+                                    + " ends in the middle of a text", ex);
+                        }
+                        next = new String(bytes, StandardCharsets.UTF_8);
+                    }
+                    return true;
+                } catch (IOException ex) {
+                    if (in != null) {
+                        try {
+                            closeStream(in);
+                        } catch (IOException suppressed) {
+                            ex.addSuppressed(suppressed);
+                        }
+                        in = null;
+                    }
+                    // retrying would reopen the segment from its start
+                    failure = new UncheckedIOException(ex);
+                    throw failure;
+                }
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                String text = next;
+                next = null;
+                return text;
+            }
+        };
+    }
+
+    private synchronized DataInputStream openStream(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), INPUT_BUFFER_SIZE));
+        streams.add(in);
+        return in;
+    }
+
+    private synchronized void closeStream(DataInputStream in) throws IOException {
+        streams.remove(in);
+        in.close();
+    }
+
+    /**
+     * Checks whether the directory holds a store.
+     * 
+     * @param directory
+     * @return 
+     */
+    public static boolean exists(String directory) {
+        return Files.isRegularFile(Paths.get(directory, INDEX_FILE));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        index.close();
+        for (FileChannel segment : segments) {
+            if (segment != null) segment.close();
+        }
+        for (DataInputStream in : streams) {
+            in.close();
+        }
+        streams.clear();
+    }
+}
@@ -0,0 +1,122 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.StandardOpenOption;
+import java.io.BufferedOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.io.DataOutputStream;
+import java.nio.channels.Channels;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.Path;
+
+/**
+ * TaggedSegmentWriter - appends tagged texts to the segments of a store.
+ * 
+ * The texts are appended to a segment file through a large buffer, and once a
+ * segment has grown past the segment size the next text starts a new segment.
+ * The position of every text is appended to the index of the store, so a text
+ * can be found by its id (the order it was appended in). See TaggedSegmentStore
+ * for the layout of the store, and for reading it.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class TaggedSegmentWriter implements AutoCloseable {
+    /**
+     * Size of the buffers between the writer and the files.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final DataOutputStream index;
+    private DataOutputStream segment;
+    private int segmentNumber = -1;
+    private long segmentLength;
+    private long count;
+
+    /**
+     * Creates a new, empty store in the directory, replacing the segments and
+     * index of a store that was in the directory before.
+     * 
+     * @param directory the directory of the store, created if it does not exist
+     * @param segmentSize size a segment grows to before the next one is started
+     * @throws IOException if the store could not be created
+     */
+    TaggedSegmentWriter(String directory, long segmentSize) throws IOException {
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSize;
+        Files.createDirectories(this.directory);
+        try (DirectoryStream<Path> old = Files.newDirectoryStream(this.directory,
+                TaggedSegmentStore.SEGMENT_PREFIX + "*" + TaggedSegmentStore.SEGMENT_SUFFIX)) {
+            for (Path path : old) {
+                Files.delete(path);
+            }
+        }
+        index = open(this.directory.resolve(TaggedSegmentStore.INDEX_FILE));
+    }
+
+    private static DataOutputStream open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel), OUTPUT_BUFFER_SIZE));
+    }
+
+    /**
+     * Appends a tagged text to the store.
+     * 
+     * @param tagged the tagged text
+     * @return the id of the text in the store
+     * @throws IOException if the text could not be written
+     */
+    long append(String tagged) throws IOException {
+        if (segment == null || segmentLength >= segmentSize) {
+            if (segment != null) segment.close();
+            segmentNumber++;
+            segment = open(directory.resolve(TaggedSegmentStore.segmentName(segmentNumber)));
+            segmentLength = 0;
+        }
+        byte[] bytes = tagged.getBytes(StandardCharsets.UTF_8);
+        index.writeLong(TaggedSegmentStore.position(segmentNumber, segmentLength));
+        segment.writeInt(bytes.length);
+        segment.write(bytes);
+        segmentLength += 4 + bytes.length;
+        return count++;
+    }
+
+    /**
+     * Flushes and closes the current segment and the index.
+     * 
+     * @throws IOException if the store could not be flushed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (segment != null) segment.close();
+        } finally {
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.Arrays;
+
+/**
+ * TaggedTermCounts - counts of the "word_TAG" terms of tagged texts.
+ * 
+ * A tagged text is scanned in place: every space separated term is split at
+ * its last '_' into a word and a tag, which are turned into ids by their own
+ * dictionaries (there are only a few dozen tags), and the pair is packed into
+ * a single long key. The keys are counted in a primitive open addressing
+ * table, so counting a term allocates no substring, no array of terms and no
+ * boxed Integer. A term is rendered back as "word_TAG" only for the report.
+ * 
+ * The terms are split the same way String.split(" ") splits the tagged text
+ * (empty terms between two spaces are counted, trailing ones are not). Not
+ * thread safe, every tagging thread counts into its own counts.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class TaggedTermCounts {
+    /**
+     * The tag of a term with no '_' in it (which is rendered without one).
+     */
+    private static final int NO_TAG = 0;
+
+    private final TermDictionary words = new TermDictionary();
+    private final TermDictionary tags = new TermDictionary();
+
+    private long[] keys = new long[1024];
+    private int[] counts = new int[1024];  // zero when the slot is empty
+    private int mask = 1023;
+    private int size;
+
+    TaggedTermCounts() {
+        tags.idOf(" "); // reserves NO_TAG, a term never holds a space
+    }
+
+    /**
+     * Counts every term of a tagged text.
+     * 
+     * @param tagged the output of the tagger
+     */
+    void countTagged(String tagged) {
+        int length = tagged.length();
+        while (length > 0 && tagged.charAt(length - 1) == ' ') length--;
+        if (length == 0) {
+            if (tagged.isEmpty()) add(words.idOf(""), NO_TAG, 1); // as split does
+            return;
+        }
+        int start = 0;
+        int underscore = -1;
+        for (int i = 0; i <= length; i++) {
+            char c = (i == length) ? ' ' : tagged.charAt(i);
+            if (c == '_') {
+                underscore = i;
+            } else if (c == ' ') {
+                if (underscore < 0) {
+                    add(words.idOf(tagged, start, i), NO_TAG, 1);
+                } else {
+                    add(words.idOf(tagged, start, underscore),
+                            tags.idOf(tagged, underscore + 1, i), 1);
+                }
+                start = i + 1;
+                underscore = -1;
+            }
+        }
+    }
+
+    /**
+     * Counts a term, given as a single "word_TAG" string.
+     * 
+     * @param term
+     * @param count
+     */
+    void add(String term, int count) {
+        int underscore = term.lastIndexOf('_');
+        if (underscore < 0) {
+            add(words.idOf(term), NO_TAG, count);
+        } else {
+            add(words.idOf(term, 0, underscore),
+                    tags.idOf(term, underscore + 1, term.length()), count);
+        }
+    }
+
+    private void add(int word, int tag, int count) {
+        long key = (long) word << 32 | tag;
+        int slot = slot(key);
+        while (counts[slot] != 0) {
+            if (keys[slot] == key) {
+                counts[slot] += count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        counts[slot] = count;
+        if (++size * 2 > keys.length) rehash();
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L; // fibonacci hashing
+        return (int) (hash >>> 32) & mask;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        counts = new int[oldCounts.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCounts[i] == 0) continue;
+            int slot = slot(oldKeys[i]);
+            while (counts[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            counts[slot] = oldCounts[i];
+        }
+    }
+
+    /**
+     * Adds all of the counts of the other counts into these counts.
+     * 
+     * @param other
+     */
+    void addAll(TaggedTermCounts other) {
+        int[] tagIds = new int[other.tags.size()];
+        for (int tag = 0; tag < tagIds.length; tag++) {
+            String name = other.tags.term(tag);
+            tagIds[tag] = tags.idOf(name);
+        }
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.counts[i] == 0) continue;
+            String word = other.words.term((int) (other.keys[i] >>> 32));
+            add(words.idOf(word), tagIds[(int) other.keys[i]], other.counts[i]);
+        }
+    }
+
+    /**
+     * Receives the terms of the counts, see forEach.
+     */
+    interface TermConsumer {
+        void accept(CharSequence term, int count);
+    }
+
+    /**
+     * Hands every term (rendered as "word_TAG" into a reused builder, so it
+     * must not be kept) and its count to the consumer, in no particular order.
+     * 
+     * @param consumer
+     */
+    void forEach(TermConsumer consumer) {
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i < keys.length; i++) {
+            if (counts[i] == 0) continue;
+            term.setLength(0);
+            words.appendTerm((int) (keys[i] >>> 32), term);
+            int tag = (int) keys[i];
+            if (tag != NO_TAG) {
+                term.append('_');
+                tags.appendTerm(tag, term);
+            }
+            consumer.accept(term, counts[i]);
+        }
+    }
+
+    /**
+     * Returns the count of a term, given as a single "word_TAG" string.
+     * 
+     * @param term
+     * @return the count of the term, zero when it was never counted
+     */
+    int get(String term) {
+        int underscore = term.lastIndexOf('_');
+        int word = words.find(underscore < 0 ? term : term.substring(0, underscore));
+        int tag = (underscore < 0) ? NO_TAG : tags.find(term.substring(underscore + 1));
+        if (word < 0 || tag < 0) return 0;
+        long key = (long) word << 32 | tag;
+        for (int slot = slot(key); counts[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return counts[slot];
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of distinct terms counted.
+     * 
+     * @return 
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes every count (and every word and tag).
+     */
+    void clear() {
+        Arrays.fill(counts, 0);
+        words.clear();
+        tags.clear();
+        tags.idOf(" ");
+        size = 0;
+    }
+}
@@ -0,0 +1,112 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TermCountLogScorer - a trained model, frozen for scoring documents quickly.
+ * 
+ * The score of a document is the logarithm of the class probability of the
+ * model (see getClassProbability of the TermCountProbabilityModel), as a sum
+ * of logs instead of a product of probabilities, which underflows to zero on
+ * documents of any length. The log of the probability of every term of the
+ * model, and of the smoothing constant of the terms the model does not have,
+ * are computed when the model is frozen, and the terms of a document are
+ * looked up by id in the frozen dictionary of the model.
+ * 
+ * A scorer is a copy, and is not changed by pushing more terms into the model
+ * it was frozen from. Scorers are immutable, and may score from any thread.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public final class TermCountLogScorer {
+
+    private final TermDictionary terms;
+    private final double[] logProbs;    // of every term, by id
+    private final double unseenLog;     // log of the smoothing constant
+
+    /**
+     * @param terms the terms of the model, the scorer keeps a copy
+     * @param probs the probabilities of the terms, by id
+     * @param smoothing the probability of a term the model does not have
+     */
+    TermCountLogScorer(TermDictionary terms, double[] probs, double smoothing) {
+        this.terms = new TermDictionary();
+        this.logProbs = new double[terms.size()];
+        StringBuilder term = new StringBuilder();
+        for (int id = 0; id < terms.size(); id++) {
+            term.setLength(0);
+            terms.appendTerm(id, term);
+            this.terms.idOf(term); // the same id, the ids are given out in order
+            logProbs[id] = Math.log(probs[id]);
+        }
+        this.unseenLog = Math.log(smoothing);
+    }
+
+    /**
+     * Returns the log of the probability of the term in the model, or of the
+     * smoothing constant when the model does not have the term.
+     * 
+     * @param term
+     * @return 
+     */
+    public double getTermLogProbability(String term) {
+        int id = terms.find(term);
+        return (id < 0) ? unseenLog : logProbs[id];
+    }
+
+    /**
+     * Scores a document against the model: the log of getClassProbability of
+     * the model it was frozen from, without the underflow.
+     * 
+     * @param document the term probabilities of the document (computed)
+     * @return the log of the class probability of the document
+     */
+    public double score(TermCountProbabilityModel document) {
+        StringBuilder term = new StringBuilder();
+        TermDictionary documentTerms = document.terms();
+        double score = 0;
+        for (int documentId = 0; documentId < documentTerms.size(); documentId++) {
+            term.setLength(0);
+            documentTerms.appendTerm(documentId, term);
+            int id = terms.find(term);
+            if (id >= 0) {
+                score += logProbs[id] + Math.log(document.probabilityOf(documentId));
+            } else {
+                score += unseenLog;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Scores every document against the model, on all of the cores.
+     * 
+     * @param documents the term probabilities of the documents (computed)
+     * @return the score of every document, in the order of the documents
+     */
+    public double[] score(List<TermCountProbabilityModel> documents) {
+        double[] scores = new double[documents.size()];
+        Arrays.parallelSetAll(scores, i -> score(documents.get(i)));
+        return scores;
+    }
+}
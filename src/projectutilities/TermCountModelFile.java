@@ -0,0 +1,334 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.io.BufferedOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.MappedByteBuffer;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.nio.DoubleBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * TermCountModelFile - a TermCountProbabilityModel in a compact binary file.
+ * 
+ * The terms are stored sorted (by their UTF-8 bytes) back to back, and the
+ * counts, probabilities and term offsets as plain arrays, all at fixed places:
+ * 
+ *   header : "TCPM" version(int) terms(int) 0(int) total(long) pool size(long)
+ *   probs  : probability(double) of every term
+ *   counts : count(int) of every term
+ *   starts : offset(int) of every term in the pool, then the pool size
+ *   pool   : UTF-8 bytes of the terms
+ * 
+ * A file is read straight out of a memory mapping, a term is found by binary
+ * search, so opening a model costs no parsing and no objects, however many
+ * terms it has, and the pages of a model used by several JVMs are shared.
+ * A file may be read by several threads.
+ * 
+ * That only holds for lookups through this class. A TermCountProbabilityModel
+ * constructed from a model file copies every term into the heap, and so do
+ * the TermCountLogScorer and NaiveBayesClassifier made from such a model.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public final class TermCountModelFile implements AutoCloseable {
+
+    private static final byte[] MAGIC = {'T', 'C', 'P', 'M'};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private final FileChannel channel;
+    private final ByteBuffer pool;
+    private final DoubleBuffer probs;
+    private final IntBuffer counts;
+    private final IntBuffer starts;
+    private final int size;
+    private final long totalTermCount;
+
+    /**
+     * Opens and maps a binary model file.
+     * 
+     * @param filename path of the model file
+     * @throws IOException if the file could not be read or is not a model file
+     */
+    public TermCountModelFile(String filename) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+                throw new IOException("not a binary model file (or too large to map): " + filename);
+            }
+            MappedByteBuffer file = channel.map(MapMode.READ_ONLY, 0, fileSize);
+            byte[] magic = new byte[MAGIC.length];
+            file.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || file.getInt() != VERSION) {
+                throw new IOException("not a binary model file (version " + VERSION + "): "
+                        + filename);
+            }
+            size = file.getInt();
+            file.getInt();
+            totalTermCount = file.getLong();
+            long poolSize = file.getLong();
+            long poolStart = HEADER_SIZE + size * 16L + 4;
+            if (size < 0 || poolSize < 0 || poolStart + poolSize != fileSize) {
+                throw new IOException("incomplete binary model file: " + filename);
+            }
+            probs = slice(file, HEADER_SIZE, size * 8L).asDoubleBuffer();
+            counts = slice(file, HEADER_SIZE + size * 8L, size * 4L).asIntBuffer();
+            starts = slice(file, HEADER_SIZE + size * 12L, size * 4L + 4).asIntBuffer();
+            pool = slice(file, poolStart, poolSize);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer file, long from, long length) {
+        ByteBuffer view = file.duplicate();
+        view.position((int) from);
+        view.limit((int) (from + length));
+        return view.slice();
+    }
+
+    /**
+     * Checks whether the file starts like a binary model file.
+     * 
+     * @param filename
+     * @return 
+     */
+    public static boolean isModelFile(String filename) {
+        byte[] magic = new byte[MAGIC.length];
+        try (FileInputStream in = new FileInputStream(filename)) {
+            return in.read(magic) == magic.length && Arrays.equals(magic, MAGIC);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Converts a model serialized by serializeTermCountProbabilityModel (or a
+     * binary term count report) into a binary model file.
+     * 
+     * @param serializedModelFileName the serialized model
+     * @param filename path of the binary model file
+     * @throws IOException if the serialized model could not be read, or the
+     * model file could not be written
+     */
+    public static void convert(String serializedModelFileName, String filename)
+            throws IOException {
+        TermCountProbabilityModel model;
+        try {
+            model = TermCountProbabilityModel.read(serializedModelFileName);
+        } catch (ClassNotFoundException ex) {
+            throw new IOException(serializedModelFileName + " does not hold a model", ex);
+        }
+        model.writeModelFile(filename);
+    }
+
+    /**
+     * Writes the terms, their counts and probabilities as a binary model file.
+     * 
+     * @param terms the terms, by id
+     * @param termCounts the counts of the terms, by id
+     * @param termProbs the probabilities of the terms, by id
+     * @param total the total term count
+     * @param filename path of the model file
+     * @throws IOException if the file could not be written
+     */
+    static void write(TermDictionary terms, int[] termCounts, double[] termProbs, long total,
+            String filename) throws IOException {
+        int n = terms.size();
+        byte[][] bytes = new byte[n][];
+        Integer[] order = new Integer[n];
+        long poolSize = 0;
+        for (int id = 0; id < n; id++) {
+            bytes[id] = terms.term(id).getBytes(StandardCharsets.UTF_8);
+            order[id] = id;
+            poolSize += bytes[id].length;
+        }
+        if (HEADER_SIZE + n * 16L + 4 + poolSize > Integer.MAX_VALUE) {
+            throw new IOException("model too large for a binary model file: " + filename);
+        }
+        Arrays.sort(order, (a, b) -> compare(bytes[a], bytes[b]));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(filename), 1 << 16))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(0);
+            out.writeLong(total);
+            out.writeLong(poolSize);
+            for (int id : order) {
+                out.writeDouble(termProbs[id]);
+            }
+            for (int id : order) {
+                out.writeInt(termCounts[id]);
+            }
+            int start = 0;
+            for (int id : order) {
+                out.writeInt(start);
+                start += bytes[id].length;
+            }
+            out.writeInt(start);
+            for (int id : order) {
+                out.write(bytes[id]);
+            }
+        }
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) return difference;
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Returns the number of terms in the model.
+     * 
+     * @return 
+     */
+    public int getModelSize() {
+        return size;
+    }
+
+    /**
+     * Returns the total term count of the model.
+     * 
+     * @return 
+     */
+    public long getTotalTermCount() {
+        return totalTermCount;
+    }
+
+    /**
+     * Finds the index of the term, the terms are indexed in sorted order.
+     * 
+     * @param term
+     * @return the index of the term, or -1 if the model does not have it
+     */
+    public int indexOf(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int difference = compareTerm(middle, key);
+            if (difference < 0) {
+                low = middle + 1;
+            } else if (difference > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int compareTerm(int index, byte[] key) {
+        int start = starts.get(index);
+        int length = starts.get(index + 1) - start;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (pool.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (difference != 0) return difference;
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Returns the term at the index.
+     * 
+     * @param index
+     * @return 
+     */
+    public String getTerm(int index) {
+        int start = starts.get(index);
+        byte[] bytes = new byte[starts.get(index + 1) - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = pool.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the count of the term at the index.
+     * 
+     * @param index
+     * @return 
+     */
+    public int getCount(int index) {
+        return counts.get(index);
+    }
+
+    /**
+     * Returns the probability of the term at the index.
+     * 
+     * @param index
+     * @return 
+     */
+    public double getProbability(int index) {
+        return probs.get(index);
+    }
+
+    /**
+     * Returns the count of the term, zero if it is not present.
+     * 
+     * @param term
+     * @return 
+     */
+    public int getTermCount(String term) {
+        int index = indexOf(term);
+        return (index < 0) ? 0 : counts.get(index);
+    }
+
+    /**
+     * Returns the probability of the term, zero if it is not present.
+     * 
+     * @param term
+     * @return 
+     */
+    public double getTermProbability(String term) {
+        int index = indexOf(term);
+        return (index < 0) ? 0 : probs.get(index);
+    }
+
+    /**
+     * Closes the file, the mapping is released when it is garbage collected.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -18,7 +18,9 @@
 package projectutilities;
 
 import java.io.FileNotFoundException;
+import java.io.InvalidObjectException;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.ObjectInputStream;
 import java.io.FileOutputStream;
 import java.io.FileInputStream;
@@ -27,9 +29,18 @@ import java.util.Map.Entry;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 /**
+ * TermCountProbabilityModel - the counts and probabilities of the terms of a class.
+ * 
+ * The terms are kept in a TermDictionary, which gives each a dense int id,
+ * and the counts and probabilities in int and double arrays indexed by the
+ * ids, so a term costs no map entry, String or pair object, and pushing a term
+ * is a single lookup. The serialized form is still the original map of terms
+ * to CountProbabilityPair, so models serialized before can still be read.
  * 
  * @author W. Hatfield
  * @author U. Jaimini
@@ -38,9 +49,32 @@ import java.util.Set;
 public class TermCountProbabilityModel implements Serializable {
     
     /**
-     * CountProbabilityPair - structure for multiple primitive data type access.
+     * The serialVersionUID the models were serialized with before it was set.
+     */
+    private static final long serialVersionUID = -6299123833501253697L;
+    
+    /**
+     * Models written to a file with this extension are in the binary model
+     * file format (see TermCountModelFile), instead of serialized.
+     */
+    public static final String BINARY_MODEL_EXTENSION = ".bin";
+    
+    /**
+     * The fields of the serialized form, see writeObject and readObject. The
+     * total is also kept as a long, models serialized before only have the int.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("MODEL", HashMap.class),
+        new ObjectStreamField("totalTermCount", Integer.TYPE),
+        new ObjectStreamField("totalTermCountLong", Long.TYPE)
+    };
+    
+    /**
+     * CountProbabilityPair - structure for multiple primitive data type access,
+     * only used for the serialized form of the model now.
      */
     private class CountProbabilityPair implements Serializable {
+        private static final long serialVersionUID = 2448845280443416592L;
         public double prob; // probability of the term in the dataset
         public int count;   // count of the term in the dataset
         @Override
@@ -50,21 +84,29 @@ public class TermCountProbabilityModel implements Serializable {
     }
     
     /**
-     * Primary data structure for storing terms, counts, and probabilities.
+     * Primary data structure for storing terms, counts, and probabilities: the
+     * term ids, then the count and probability of every id.
      */
-    private final HashMap<String, CountProbabilityPair> MODEL;
+    private transient TermDictionary terms;
+    private transient int[] counts;
+    private transient double[] probs;
     
     /**
-     * Convenient counter for storing the total number of map entries.
+     * Convenient counter for storing the total number of map entries, a long
+     * so that the total of a large corpus (or of many merged shards) fits.
      */
-    private int totalTermCount;
+    private long totalTermCount;
+    
+    /**
+     * The approximate counts the terms are pushed into, null to count exactly.
+     */
+    private transient ApproximateTermCounts approximate;
     
     /**
      * Default Constructor - initializes a new empty hashmap and counter.
      */
     public TermCountProbabilityModel() {
-        MODEL = new HashMap<>();
-        totalTermCount = 0;
+        clear();
     }
     
     /**
@@ -73,27 +115,68 @@ public class TermCountProbabilityModel implements Serializable {
      * 
      * If any errors are encountered during reading the default values are used.
      * 
+     * The file may also be a binary term count report (see writeReport of the
+     * StandfordSpeechTaggerAndCounter), in which case the model is made from
+     * the counts of the report, with the term probabilities computed, or a
+     * binary model file (see TermCountModelFile). A binary model file is copied
+     * into the heap term by term, so this costs time and memory in the number
+     * of terms like any other model, only the lookups of a TermCountModelFile
+     * itself open instantly and share their pages.
+     * 
      * @param serializedModelFileName serialized model to construct from
      */
     public TermCountProbabilityModel(String serializedModelFileName) {
-        TermCountProbabilityModel tcpm = null;
+        clear();
         try {
-            FileInputStream fis = new FileInputStream(serializedModelFileName);
-            ObjectInputStream objReader = new ObjectInputStream(fis);
-            tcpm = (TermCountProbabilityModel) objReader.readObject();
+            TermCountProbabilityModel tcpm = read(serializedModelFileName);
+            this.totalTermCount = tcpm.totalTermCount;
+            this.terms = tcpm.terms;
+            this.counts = tcpm.counts;
+            this.probs = tcpm.probs;
         } catch (ClassNotFoundException ex) {
             System.err.println("ClassNotFoundException: " + ex.getMessage());
-        }catch (FileNotFoundException ex) {
+        } catch (FileNotFoundException ex) {
             System.err.println("FileNotFoundException: " + ex.getMessage());
         } catch (IOException ex) {
             System.err.println("IOException: " + ex.getMessage());
         }
-        if (tcpm != null) {
-            this.totalTermCount = tcpm.totalTermCount;
-            this.MODEL = tcpm.MODEL;
-        } else {
-            MODEL = new HashMap<>();
-            totalTermCount = 0;
+    }
+    
+    /**
+     * Reads a model from a serialized model file, a binary term count report or
+     * a binary model file, like the constructor, but fails instead of falling
+     * back to an empty model.
+     * 
+     * @param filename the model file
+     * @return the model
+     * @throws IOException if the file could not be read or holds no model
+     * @throws ClassNotFoundException if a class of the serialized model is missing
+     */
+    static TermCountProbabilityModel read(String filename)
+            throws IOException, ClassNotFoundException {
+        TermCountProbabilityModel tcpm = new TermCountProbabilityModel();
+        if (TermCountModelFile.isModelFile(filename)) {
+            try (TermCountModelFile file = new TermCountModelFile(filename)) {
+                for (int index = 0; index < file.getModelSize(); index++) {
+                    int id = tcpm.idOf(file.getTerm(index));
+                    tcpm.counts[id] = file.getCount(index);
+                    tcpm.probs[id] = file.getProbability(index);
+                }
+                tcpm.totalTermCount = file.getTotalTermCount();
+            }
+            return tcpm;
+        }
+        if (TermCountReport.isBinaryReport(filename)) {
+            TermCountReport.read(filename, tcpm::pushTerm);
+            tcpm.computeTheTermProbabilites();
+            return tcpm;
+        }
+        try (ObjectInputStream objReader = new ObjectInputStream(new FileInputStream(filename))) {
+            Object model = objReader.readObject();
+            if (!(model instanceof TermCountProbabilityModel)) {
+                throw new InvalidObjectException(filename + " does not hold a model");
+            }
+            return (TermCountProbabilityModel) model;
         }
     }
     
@@ -108,10 +191,14 @@ public class TermCountProbabilityModel implements Serializable {
      */
     public double getClassProbability(TermCountProbabilityModel tcpm, int vocab) {
         double probability = 1.0;
-        for (Entry<String, CountProbabilityPair> entry : tcpm.MODEL.entrySet()) {
-            if (this.MODEL.containsKey(entry.getKey())) {
-                double thisTermProb = this.MODEL.get(entry.getKey()).prob;
-                double tcpmTermProb = entry.getValue().prob;
+        StringBuilder term = new StringBuilder();
+        for (int tcpmId = 0; tcpmId < tcpm.terms.size(); tcpmId++) {
+            term.setLength(0);
+            tcpm.terms.appendTerm(tcpmId, term);
+            int id = this.terms.find(term);
+            if (id >= 0) {
+                double thisTermProb = this.probs[id];
+                double tcpmTermProb = tcpm.probs[tcpmId];
                 double termProbability = thisTermProb * tcpmTermProb;
                 probability = probability * termProbability;
             } else {
@@ -122,20 +209,69 @@ public class TermCountProbabilityModel implements Serializable {
         return probability;
     }
     
+    /**
+     * Compares the passed model to this one like getClassProbability does, but
+     * adds up the logs of the probabilities, so that long documents do not
+     * underflow to zero, returning the log of the class probability. To score
+     * many documents against the same model, freeze it first.
+     * 
+     * @param tcpm
+     * @param vocab
+     * @return 
+     */
+    public double getClassLogProbability(TermCountProbabilityModel tcpm, int vocab) {
+        double logProbability = 0;
+        double unseenLog = -Math.log(vocab + totalTermCount);
+        StringBuilder term = new StringBuilder();
+        for (int tcpmId = 0; tcpmId < tcpm.terms.size(); tcpmId++) {
+            term.setLength(0);
+            tcpm.terms.appendTerm(tcpmId, term);
+            int id = this.terms.find(term);
+            if (id >= 0) {
+                logProbability += Math.log(this.probs[id]) + Math.log(tcpm.probs[tcpmId]);
+            } else {
+                logProbability += unseenLog;
+            }
+        }
+        return logProbability;
+    }
+    
+    /**
+     * Freezes the model (once the probabilities are computed) into a scorer,
+     * which scores documents in log space, and is best made once and used for
+     * all of the documents, see TermCountLogScorer.
+     * 
+     * @param vocab the vocabulary size of the smoothing constant, as for
+     * getClassProbability
+     * @return the scorer of the model as it is now
+     */
+    public TermCountLogScorer freeze(int vocab) {
+        return new TermCountLogScorer(terms, probs, 1.0 / (vocab + totalTermCount));
+    }
+    
     /**
      * Writes the current state of the calling object out to disk, and uses the
      * String argument as the PATH TO and NAME OF 'this' serialized object.
+     * A name ending with BINARY_MODEL_EXTENSION is written as a binary model
+     * file instead, which loads far faster, see writeModelFile.
      * 
      * @param outputFileName 
      */
     public void serializeTermCountProbabilityModel(String outputFileName) {
-        TermCountProbabilityModel tcpm = new TermCountProbabilityModel();
-        tcpm.totalTermCount = this.totalTermCount;
-        tcpm.MODEL.putAll(this.MODEL);
+        if (outputFileName.endsWith(BINARY_MODEL_EXTENSION)) {
+            try {
+                writeModelFile(outputFileName);
+                return;
+            } catch (IOException ex) {
+                System.err.println("IOException: " + ex.getMessage());
+            }
+            System.err.println("ERR @ serializeTermCountProbabilityModel !!!");
+            return;
+        }
         try {
             FileOutputStream fos = new FileOutputStream(outputFileName);
             ObjectOutputStream objWriter = new ObjectOutputStream(fos);
-            objWriter.writeObject(tcpm);    // write the object
+            objWriter.writeObject(this);    // write the object
             objWriter.flush();              // flush the buffer
             objWriter.close();              // close the writer
             return;                         // exit the function
@@ -148,6 +284,33 @@ public class TermCountProbabilityModel implements Serializable {
         System.err.println("ERR @ serializeTermCountProbabilityModel !!!");
     }
     
+    /**
+     * Sets the terms pushed from now on to be counted approximately, in a fixed
+     * amount of memory (a Count-Min Sketch and the heavyHitters most frequent
+     * terms), see ApproximateTermCounts. When the probabilities are computed,
+     * the model is made of the heavy hitters, with their estimated counts, and
+     * until then getTermCount estimates the count of any term.
+     * 
+     * @param epsilon the error of the counts, as a fraction of the total count
+     * @param delta the probability of a count being off by more than that
+     * @param heavyHitters number of the most frequent terms kept in the model
+     */
+    public void setApproximateCounting(double epsilon, double delta, int heavyHitters) {
+        approximate = new ApproximateTermCounts(epsilon, delta, heavyHitters);
+    }
+    
+    /**
+     * Writes the model as a binary model file: sorted terms and plain arrays
+     * of the counts and probabilities, which the model constructor loads, and
+     * which can be used as it is, memory mapped, through TermCountModelFile.
+     * 
+     * @param filename path of the binary model file
+     * @throws IOException if the file could not be written
+     */
+    public void writeModelFile(String filename) throws IOException {
+        TermCountModelFile.write(terms, counts, probs, totalTermCount, filename);
+    }
+    
     /**
      * Either adds a new term to the model with an initial count of 1 and an
      * initial probability of -1 (calculated when all pushes complete), OR if
@@ -156,27 +319,136 @@ public class TermCountProbabilityModel implements Serializable {
      * @param term the string to add to the model or increment the counter of.
      */
     public void pushTerm(String term) {
-        if (MODEL.containsKey(term)) {
-            MODEL.get(term).count++;
-        } else {
-            CountProbabilityPair cpp = new CountProbabilityPair();
-            cpp.count = 1;
-            cpp.prob = -1;
-            MODEL.put(term, cpp);
+        if (approximate != null) {
+            approximate.add(term, 1);
+            totalTermCount++;
+            return;
         }
+        int id = idOf(term); // may grow the arrays, so before indexing them
+        counts[id] = Math.addExact(counts[id], 1);
         totalTermCount++;
     }
     
+    /**
+     * Adds a term to the model with the given count, or adds the count to the
+     * counter of the term when it is already present, as if the term had been
+     * pushed that many times.
+     * 
+     * @param term the string to add to the model or increment the counter of.
+     * @param count the number of times the term was seen
+     */
+    public void pushTerm(String term, int count) {
+        if (approximate != null) {
+            approximate.add(term, count);
+            totalTermCount += count;
+            return;
+        }
+        int id = idOf(term);
+        counts[id] = Math.addExact(counts[id], count);
+        totalTermCount += count;
+    }
+    
+    /**
+     * Adds the counts of a shard (a model trained on another part of the
+     * corpus) to this model: the counts of every term are summed, and so are
+     * the totals. Merging is associative and commutative, the counts do not
+     * depend on the order the shards are merged in, and the probabilities are
+     * computed once, after the last shard is merged (see merge(shards)).
+     * 
+     * Approximate counts of the shard are merged once they are in its terms,
+     * after its probabilities are computed.
+     * 
+     * @param shard the model to add to this one, it is not changed
+     * @throws ArithmeticException if the count of a term overflows an int
+     */
+    public void merge(TermCountProbabilityModel shard) {
+        StringBuilder term = new StringBuilder();
+        int shardSize = shard.terms.size(); // fixed, for merging a model into itself
+        for (int shardId = 0; shardId < shardSize; shardId++) {
+            term.setLength(0);
+            shard.terms.appendTerm(shardId, term);
+            int id = idOf(term);
+            counts[id] = Math.addExact(counts[id], shard.counts[shardId]);
+        }
+        totalTermCount = Math.addExact(totalTermCount, shard.totalTermCount);
+    }
+    
+    /**
+     * Merges the shards into a new model, in the order of the list, and
+     * computes the term probabilities of the merged counts.
+     * 
+     * The shards may have been trained on separate threads, or loaded from the
+     * files of separate processes or machines (with the String constructor).
+     * 
+     * @param shards the models to merge
+     * @return the merged model
+     */
+    public static TermCountProbabilityModel merge(List<TermCountProbabilityModel> shards) {
+        TermCountProbabilityModel merged = new TermCountProbabilityModel();
+        for (TermCountProbabilityModel shard : shards) {
+            merged.merge(shard);
+        }
+        merged.computeTheTermProbabilites();
+        return merged;
+    }
+    
+    /**
+     * Returns the total count of all of the terms pushed into the model.
+     * 
+     * @return 
+     */
+    public long getTotalTermCount() {
+        return totalTermCount;
+    }
+    
+    /**
+     * Returns the id of the term, adding the term (with a count of 0 and the
+     * probability -1) when it is not in the model yet.
+     * 
+     * @param term
+     * @return 
+     */
+    private int idOf(CharSequence term) {
+        int size = terms.size();
+        int id = terms.idOf(term);
+        if (id == size) {
+            if (id == counts.length) {
+                counts = Arrays.copyOf(counts, id * 2);
+                probs = Arrays.copyOf(probs, id * 2);
+            }
+            counts[id] = 0;
+            probs[id] = -1;
+        }
+        return id;
+    }
+    
+    /**
+     * Empties the model.
+     */
+    private void clear() {
+        terms = new TermDictionary();
+        counts = new int[64];
+        probs = new double[64];
+        totalTermCount = 0;
+    }
+    
     /**
      * Iterates through all elements in the model (HashMap) and computes the
      * probability of the term (key) in the element by dividing the individual
      * term count over the total term count, then stores the result in model.
      */
     public void computeTheTermProbabilites() {
-        for (Entry<String, CountProbabilityPair> entry : MODEL.entrySet()) {
-            double termCount = (double) entry.getValue().count;
+        if (approximate != null) {
+            approximate.forEachHeavyHitter((term, count) -> {
+                int id = idOf(term);
+                counts[id] += count;
+            });
+            approximate.clear(); // the counts are in the model now
+        }
+        for (int id = 0; id < terms.size(); id++) {
+            double termCount = (double) counts[id];
             double probability = termCount / totalTermCount;
-            entry.getValue().prob = probability;
+            probs[id] = probability;
         }
     }
     
@@ -187,7 +459,9 @@ public class TermCountProbabilityModel implements Serializable {
      */
     public Set<String> getVocabulary() {
         HashSet<String> vocabulary = new HashSet<>();
-        vocabulary.addAll(MODEL.keySet());
+        for (int id = 0; id < terms.size(); id++) {
+            vocabulary.add(terms.term(id));
+        }
         return vocabulary;
     }
     
@@ -200,8 +474,9 @@ public class TermCountProbabilityModel implements Serializable {
      * @return 
      */
     public double getTermProbability(String term) {
-        if (MODEL.containsKey(term)) {
-            double prob = MODEL.get(term).prob;
+        int id = terms.find(term);
+        if (id >= 0) {
+            double prob = probs[id];
             return prob;
         } else {
             return 0;
@@ -209,39 +484,121 @@ public class TermCountProbabilityModel implements Serializable {
     }
     
     /**
-     * Returns the count of the term in the data set, zero if it is not present.
+     * Returns the count of the term in the data set, zero if it is not present
+     * (estimated when counting approximately, until the probabilities are computed).
      * 
      * @param term
      * @return 
      */
     public int getTermCount(String term) {
-        if (MODEL.containsKey(term)) {
-            int termCount = MODEL.get(term).count;
+        int id = terms.find(term);
+        if (id >= 0) {
+            int termCount = counts[id];
             return termCount;
+        } else if (approximate != null && approximate.total() > 0) {
+            return (int) Math.min(Integer.MAX_VALUE, approximate.estimate(term));
         } else {
             return 0;
         }
     }
     
     /**
-     * Returns the size of the HashMap structure used as the model.
+     * Returns the number of terms in the model.
      * 
      * @return 
      */
     public int getModelSize() {
-        int size = MODEL.size();
+        int size = terms.size();
         return size;
     }
     
+    /**
+     * The terms of the model, by id.
+     * 
+     * @return 
+     */
+    TermDictionary terms() {
+        return terms;
+    }
+    
+    /**
+     * Returns the count of the term with the id.
+     * 
+     * @param id
+     * @return 
+     */
+    int countOf(int id) {
+        return counts[id];
+    }
+    
+    /**
+     * Returns the probability of the term with the id.
+     * 
+     * @param id
+     * @return 
+     */
+    double probabilityOf(int id) {
+        return probs[id];
+    }
+    
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (Entry<String, CountProbabilityPair> entry : MODEL.entrySet()) {
-            sb.append(entry.getKey());
+        for (int id = 0; id < terms.size(); id++) {
+            terms.appendTerm(id, sb);
             sb.append(" => ");
-            sb.append(entry.getValue().toString());
+            sb.append("{C: ").append(counts[id]).append(" && P: ").append(probs[id]).append('}');
             sb.append("\n");
         }
         return sb.toString();
     }
+    
+    /**
+     * Writes the model in its original serialized form, a HashMap of every
+     * term to its CountProbabilityPair, and the total term count.
+     * 
+     * @param out
+     * @throws IOException 
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        HashMap<String, CountProbabilityPair> model = new HashMap<>(terms.size() * 4 / 3 + 1);
+        for (int id = 0; id < terms.size(); id++) {
+            CountProbabilityPair cpp = new CountProbabilityPair();
+            cpp.count = counts[id];
+            cpp.prob = probs[id];
+            model.put(terms.term(id), cpp);
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("MODEL", model);
+        fields.put("totalTermCount", (int) Math.min(totalTermCount, Integer.MAX_VALUE));
+        fields.put("totalTermCountLong", totalTermCount);
+        out.writeFields();
+    }
+    
+    /**
+     * Reads a model of the serialized form, into the term table.
+     * 
+     * @param in
+     * @throws IOException
+     * @throws ClassNotFoundException 
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        @SuppressWarnings("unchecked")
+        HashMap<String, CountProbabilityPair> model =
+                (HashMap<String, CountProbabilityPair>) fields.get("MODEL", null);
+        clear();
+        if (model != null) {
+            for (Entry<String, CountProbabilityPair> entry : model.entrySet()) {
+                int id = idOf(entry.getKey());
+                counts[id] = entry.getValue().count;
+                probs[id] = entry.getValue().prob;
+            }
+        }
+        if (fields.defaulted("totalTermCountLong")) {
+            totalTermCount = fields.get("totalTermCount", 0);
+        } else {
+            totalTermCount = fields.get("totalTermCountLong", 0L);
+        }
+    }
 }
@@ -0,0 +1,277 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.function.ObjIntConsumer;
+import java.io.UncheckedIOException;
+import java.io.BufferedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.io.BufferedInputStream;
+import java.io.DataOutputStream;
+import java.io.DataInputStream;
+import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.util.PriorityQueue;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.IOException;
+import java.util.Comparator;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * TermCountReport - writes the "word_TAG -> n" report of the term counts.
+ * 
+ * The report is written through a large buffer, in one of these orders:
+ * 
+ *   unsorted : in table order, streamed straight out of the counts (in term
+ *              order when the counts are merged from spilled TermCountRuns)
+ *   sorted   : by count, highest first, ties by term, so reports can be diffed
+ *   top K    : only the K highest counts (sorted), selected with a heap of K
+ *              entries, so only K terms are ever turned into strings
+ * 
+ * and terms counted less than the minimum count are left out. A report file
+ * name ending in BINARY_EXTENSION is written in a compact binary form instead
+ * of text, which TermCountProbabilityModel loads directly:
+ * 
+ *   "TCRP" version(int) entries(int) total(long) { term(UTF) count(int) }*
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class TermCountReport {
+
+    static final String BINARY_EXTENSION = ".bin";
+
+    private static final byte[] MAGIC = {'T', 'C', 'R', 'P'};
+    private static final int VERSION = 1;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The terms of a report, with their counts.
+     */
+    interface Terms {
+        void forEach(TaggedTermCounts.TermConsumer consumer) throws IOException;
+    }
+
+    /**
+     * A term of the report, only made for the terms that are sorted.
+     */
+    private static final class Entry {
+        final String term;
+        final int count;
+        Entry(String term, int count) {
+            this.term = term;
+            this.count = count;
+        }
+    }
+
+    /**
+     * The order of the report: highest count first, then by term.
+     */
+    private static final Comparator<Entry> REPORT_ORDER =
+            Comparator.comparingInt((Entry entry) -> -entry.count)
+                    .thenComparing(entry -> entry.term);
+
+    boolean sorted;
+    int topK;           // zero for all of the terms
+    int minimumCount;
+
+    /**
+     * Writes the report of the counts.
+     * 
+     * @param counts the counts to report
+     * @param filename the report file, binary when it ends in BINARY_EXTENSION
+     * @throws IOException if the report could not be written
+     */
+    void write(TaggedTermCounts counts, String filename) throws IOException {
+        write(counts::forEach, filename);
+    }
+
+    /**
+     * Writes the report of the terms, which are read once when the report is
+     * unsorted (or top K), so they can be streamed from disk (TermCountRuns).
+     * 
+     * @param terms the terms to report
+     * @param filename the report file, binary when it ends in BINARY_EXTENSION
+     * @throws IOException if the terms could not be read or the report written
+     */
+    void write(Terms terms, String filename) throws IOException {
+        Entry[] entries = (sorted || topK > 0) ? select(terms) : null;
+        if (filename.endsWith(BINARY_EXTENSION)) {
+            writeBinary(terms, entries, filename);
+        } else {
+            writeText(terms, entries, filename);
+        }
+    }
+
+    /**
+     * Selects the terms to report (all, or the top K), in report order.
+     */
+    private Entry[] select(Terms terms) throws IOException {
+        if (topK <= 0) {
+            Entry[] entries = collect(terms);
+            Arrays.sort(entries, REPORT_ORDER);
+            return entries;
+        }
+        // the head of the heap is the entry that is the first to be dropped
+        PriorityQueue<Entry> heap = new PriorityQueue<>(topK + 1, REPORT_ORDER.reversed());
+        terms.forEach((term, count) -> {
+            if (count < minimumCount) return;
+            if (heap.size() == topK) {
+                Entry last = heap.peek();
+                if (count < last.count) return;
+                if (count == last.count && compare(term, last.term) >= 0) return;
+                heap.poll();
+            }
+            heap.add(new Entry(term.toString(), count));
+        });
+        Entry[] entries = heap.toArray(new Entry[heap.size()]);
+        Arrays.sort(entries, REPORT_ORDER);
+        return entries;
+    }
+
+    private static int compare(CharSequence a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            int difference = a.charAt(i) - b.charAt(i);
+            if (difference != 0) return difference;
+        }
+        return a.length() - b.length();
+    }
+
+    private void writeText(Terms terms, Entry[] entries, String filename)
+            throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(filename), StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE)) {
+            if (entries != null) {
+                for (Entry entry : entries) {
+                    writeLine(bw, entry.term, entry.count);
+                }
+                return;
+            }
+            terms.forEach((term, count) -> {
+                if (count >= minimumCount) writeLine(bw, term, count);
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private static void writeLine(BufferedWriter bw, CharSequence term, int count) {
+        try {
+            bw.append(term).append(" -> ").append(Integer.toString(count)).append('\n');
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes the binary report, the entries and total in its header are only
+     * known at the end when the terms are streamed, and are filled in last.
+     */
+    private void writeBinary(Terms terms, Entry[] entries, String filename)
+            throws IOException {
+        int[] written = {0};
+        long[] total = {0};
+        try (FileOutputStream file = new FileOutputStream(filename);
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(file, OUTPUT_BUFFER_SIZE))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0);    // entries, filled in below
+            out.writeLong(0);   // total, filled in below
+            TaggedTermCounts.TermConsumer writer = (term, count) -> {
+                if (count < minimumCount) return;
+                try {
+                    out.writeUTF(term.toString());
+                    out.writeInt(count);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                written[0]++;
+                total[0] += count;
+            };
+            if (entries != null) {
+                for (Entry entry : entries) {
+                    writer.accept(entry.term, entry.count);
+                }
+            } else {
+                terms.forEach(writer);
+            }
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + Long.BYTES);
+            header.putInt(written[0]).putLong(total[0]).flip();
+            file.getChannel().write(header, MAGIC.length + Integer.BYTES);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Collects the terms with at least the minimum count, in table order.
+     */
+    private Entry[] collect(Terms terms) throws IOException {
+        ArrayList<Entry> all = new ArrayList<>();
+        terms.forEach((term, count) -> {
+            if (count >= minimumCount) all.add(new Entry(term.toString(), count));
+        });
+        return all.toArray(new Entry[all.size()]);
+    }
+
+    /**
+     * Checks whether the file is a binary report.
+     * 
+     * @param filename
+     * @return 
+     */
+    static boolean isBinaryReport(String filename) {
+        byte[] magic = new byte[MAGIC.length];
+        try (FileInputStream in = new FileInputStream(filename)) {
+            return in.read(magic) == magic.length && Arrays.equals(magic, MAGIC);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads a binary report, handing every term and its count to the consumer.
+     * 
+     * @param filename the binary report
+     * @param consumer receives the terms and their counts
+     * @throws IOException if the report could not be read
+     */
+    static void read(String filename, ObjIntConsumer<String> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(filename), OUTPUT_BUFFER_SIZE))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION) {
+                throw new IOException("not a binary term count report: " + filename);
+            }
+            int entries = in.readInt();
+            in.readLong(); // the total, the sum of the counts
+            for (int i = 0; i < entries; i++) {
+                String term = in.readUTF();
+                consumer.accept(term, in.readInt());
+            }
+        }
+    }
+}
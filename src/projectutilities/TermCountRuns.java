@@ -0,0 +1,188 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.charset.StandardCharsets;
+import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
+import java.io.DataOutputStream;
+import java.io.DataInputStream;
+import java.util.PriorityQueue;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.Path;
+
+/**
+ * TermCountRuns - exact term counting beyond the memory, by spilling to disk.
+ * 
+ * When a count table has grown to the spill threshold, its terms are sorted
+ * and written to disk as a run, and the table is cleared to count on. For the
+ * report the runs are merged (k-way, a heap holding the current term of each
+ * run), adding up the counts of the same term across the runs, so the counts
+ * reported are exact, and the memory used does not depend on the vocabulary.
+ * The merged terms come out in term order.
+ * 
+ *   run : terms(int) { length(int) term(UTF-8) count(int) }*  sorted by term
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class TermCountRuns {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final ArrayList<Path> runs = new ArrayList<>();
+
+    /**
+     * @param directory where the runs are written, created if it does not exist
+     */
+    TermCountRuns(String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * Writes the counts to disk as a sorted run, then clears the counts.
+     * 
+     * @param counts the counts to spill
+     * @throws IOException if the run could not be written
+     */
+    void spill(TaggedTermCounts counts) throws IOException {
+        if (counts.size() == 0) return;
+        String[] terms = new String[counts.size()];
+        int[] termCounts = new int[counts.size()];
+        int[] n = {0};
+        counts.forEach((term, count) -> {
+            terms[n[0]] = term.toString();
+            termCounts[n[0]++] = count;
+        });
+        Integer[] order = new Integer[terms.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> terms[a].compareTo(terms[b]));
+        Files.createDirectories(directory);
+        Path run = Files.createTempFile(directory, "counts-", ".run");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(run), BUFFER_SIZE))) {
+            out.writeInt(terms.length);
+            for (int i : order) {
+                byte[] bytes = terms[i].getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                out.writeInt(termCounts[i]);
+            }
+        }
+        synchronized (runs) {
+            runs.add(run);
+        }
+        counts.clear();
+    }
+
+    /**
+     * Checks whether any counts have been spilled.
+     * 
+     * @return 
+     */
+    boolean isEmpty() {
+        synchronized (runs) {
+            return runs.isEmpty();
+        }
+    }
+
+    /**
+     * The next term of a run, while the runs are being merged.
+     */
+    private static final class Cursor {
+        final DataInputStream in;
+        int remaining;
+        String term;
+        int count;
+        Cursor(Path run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), BUFFER_SIZE));
+            remaining = in.readInt();
+        }
+        boolean advance() throws IOException {
+            if (remaining-- == 0) return false;
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            term = new String(bytes, StandardCharsets.UTF_8);
+            count = in.readInt();
+            return true;
+        }
+    }
+
+    /**
+     * Merges the runs, handing every distinct term and its total count to the
+     * consumer, in term order.
+     * 
+     * @param consumer receives the terms and their exact counts
+     * @throws IOException if a run could not be read
+     * @throws ArithmeticException if the total of a term overflows an int
+     */
+    void forEachMerged(TaggedTermCounts.TermConsumer consumer) throws IOException {
+        ArrayList<Path> merging;
+        synchronized (runs) {
+            merging = new ArrayList<>(runs);
+        }
+        PriorityQueue<Cursor> heap = new PriorityQueue<>(Math.max(1, merging.size()),
+                (a, b) -> a.term.compareTo(b.term));
+        ArrayList<Cursor> open = new ArrayList<>();
+        try {
+            for (Path run : merging) {
+                Cursor cursor = new Cursor(run);
+                open.add(cursor);
+                if (cursor.advance()) heap.add(cursor);
+            }
+            while (!heap.isEmpty()) {
+                Cursor cursor = heap.poll();
+                String term = cursor.term;
+                int total = cursor.count;
+                if (cursor.advance()) heap.add(cursor);
+                while (!heap.isEmpty() && heap.peek().term.equals(term)) {
+                    Cursor same = heap.poll();
+                    total = Math.addExact(total, same.count);
+                    if (same.advance()) heap.add(same);
+                }
+                consumer.accept(term, total);
+            }
+        } finally {
+            for (Cursor cursor : open) {
+                cursor.in.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes every run.
+     */
+    void clear() {
+        synchronized (runs) {
+            for (Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException ex) {
+                    System.err.println("IOException: " + ex.getMessage());
+                }
+            }
+            runs.clear();
+        }
+    }
+}
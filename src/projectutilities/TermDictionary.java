@@ -0,0 +1,176 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.Arrays;
+
+/**
+ * TermDictionary - gives every distinct term a small, dense integer id.
+ * 
+ * The terms are stored back to back in a single char array, and are looked up
+ * by a range of characters of another string, so that finding the id of a term
+ * in the middle of a tagged text allocates nothing; only a term seen for the
+ * first time is copied (once) into the dictionary. Ids are given out in order
+ * from zero. Not thread safe.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class TermDictionary {
+
+    private char[] chars = new char[1 << 12];
+    private int charCount;
+    private int[] starts = new int[64];     // start of each term in chars
+    private int[] lengths = new int[64];
+    private int[] hashes = new int[64];
+    private int size;
+
+    private int[] table = new int[128];     // id + 1 of the term, zero when empty
+    private int mask = 127;
+
+    /**
+     * Returns the id of the characters from (inclusive) to (exclusive) of the
+     * text, adding them to the dictionary as a new term if not yet in it.
+     * 
+     * @param text the text holding the term
+     * @param from start of the term in the text
+     * @param to end of the term in the text
+     * @return the id of the term
+     */
+    int idOf(CharSequence text, int from, int to) {
+        int hash = hash(text, from, to);
+        int slot = hash & mask;
+        for (int entry; (entry = table[slot]) != 0; slot = (slot + 1) & mask) {
+            int id = entry - 1;
+            if (hashes[id] == hash && matches(id, text, from, to)) return id;
+        }
+        int id = add(text, from, to, hash);
+        table[slot] = id + 1;
+        if (size * 2 > table.length) rehash();
+        return id;
+    }
+
+    /**
+     * Returns the id of the whole of the term.
+     * 
+     * @param term
+     * @return the id of the term
+     */
+    int idOf(CharSequence term) {
+        return idOf(term, 0, term.length());
+    }
+
+    /**
+     * Returns the id of the term, without adding it to the dictionary.
+     * 
+     * @param term
+     * @return the id of the term, or -1 when it is not in the dictionary
+     */
+    int find(CharSequence term) {
+        int hash = hash(term, 0, term.length());
+        for (int slot = hash & mask, entry; (entry = table[slot]) != 0; slot = (slot + 1) & mask) {
+            int id = entry - 1;
+            if (hashes[id] == hash && matches(id, term, 0, term.length())) return id;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the term with the id as a (new) string.
+     * 
+     * @param id
+     * @return 
+     */
+    String term(int id) {
+        return new String(chars, starts[id], lengths[id]);
+    }
+
+    /**
+     * Appends the term with the id to the builder, without making a string.
+     * 
+     * @param id
+     * @param builder
+     */
+    void appendTerm(int id, StringBuilder builder) {
+        builder.append(chars, starts[id], lengths[id]);
+    }
+
+    /**
+     * Returns the number of terms in the dictionary.
+     * 
+     * @return 
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes every term, the ids start from zero again.
+     */
+    void clear() {
+        Arrays.fill(table, 0);
+        charCount = 0;
+        size = 0;
+    }
+
+    private static int hash(CharSequence text, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash ^ (hash >>> 16); // spread the high bits into the slot bits
+    }
+
+    private boolean matches(int id, CharSequence text, int from, int to) {
+        if (lengths[id] != to - from) return false;
+        for (int i = starts[id], j = from; j < to; i++, j++) {
+            if (chars[i] != text.charAt(j)) return false;
+        }
+        return true;
+    }
+
+    private int add(CharSequence text, int from, int to, int hash) {
+        int length = to - from;
+        if (charCount + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(charCount + length, chars.length * 2));
+        }
+        for (int i = from; i < to; i++) {
+            chars[charCount++] = text.charAt(i);
+        }
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        starts[size] = charCount - length;
+        lengths[size] = length;
+        hashes[size] = hash;
+        return size++;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = id + 1;
+        }
+    }
+}
@@ -17,19 +17,12 @@
  */
 package projectutilities;
 
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.Transformer;
-import org.xml.sax.SAXException;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Element;
+import javax.xml.stream.XMLStreamException;
+import java.util.stream.StreamSupport;
+import java.io.UncheckedIOException;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.Spliterator;
 import java.util.ArrayList;
 import java.io.IOException;
 import java.io.File;
@@ -39,8 +32,9 @@ import java.io.File;
  * 
  * Developed to work with wikipedias special export files that can be retrieved
  * from the https://en.wikipedia.org/wiki/Special:Export web page. This suite
- * makes heavy use of the Document Object Model (DOM) for parsing the export and
- * also for writing the processed data to disk.
+ * streams the export one page at a time (StAX) so that exports of any size can
+ * be processed, straight from the .xml.gz and .xml.bz2 files Wikipedia ships,
+ * and writes each processed page to disk as soon as it is done.
  * 
  * @author W. Hatfield
  * @author U. Jaimini
@@ -50,314 +44,340 @@ public class WikipediaSpecialExportProcessor {
     /**
      * The (simple) Wikipedia Page Data Structure
      */
-    private class WikiPage {
+    static class WikiPage {
         public ArrayList<String> categories;
         public ArrayList<String> anchors;
         public ArrayList<String> texts;
         public String title;
     }
     
+    /**
+     * Processed exports with this extension are written in the binary format.
+     */
+    public static final String BINARY_EXTENSION = ".bin";
+    
+    /**
+     * Single pass lexer for the wikitext of the pages, reused for every page.
+     */
+    private final WikitextTokenizer TOKENIZER = new WikitextTokenizer();
+    
+    /**
+     * Number of threads extracting pages, more than one runs the pipeline.
+     */
+    private int workerCount = 1;
+    
+    /**
+     * Whether the pipeline writes the pages in the order of the export.
+     */
+    private boolean orderedOutput = true;
+    
+    /**
+     * Whether only the lead section of the pages is read and processed.
+     */
+    private boolean leadSectionOnly;
+    
+    /**
+     * Decides which pages of the export are processed, null for all of them.
+     */
+    private SpecialExportPageFilter pageFilter;
+    
+    /**
+     * Offset index of a multistream bz2 export, and the decompression threads.
+     */
+    private String multistreamIndex;
+    private int decompressorCount = 1;
+    
+    /**
+     * Pages written between two checkpoints of a conversion, zero for none.
+     */
+    private int checkpointInterval;
+    
+    /**
+     * Pages per second of the most recent conversion.
+     */
+    private double lastPagesPerSecond;
+    
     /**
      * 
      * @param filename
      * @return 
      */
     public ArrayList<String> getTextsFromProcessedExport(String filename) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(filename);
-            NodeList nodes = document.getElementsByTagName("page");
-            ArrayList<String> texts = new ArrayList<>();
-            
-            for (int i = 0; i < nodes.getLength(); i++) {
-                Element page = (Element) nodes.item(i);
-                //String s = page.getElementsByTagName("text").item(0).getTextContent();
-                NodeList paragraphs = page.getElementsByTagName("text");
-                for (int j = 0; j < paragraphs.getLength(); j++) {
-                    texts.add(paragraphs.item(j).getTextContent());
-                }
-                //texts.add(s);
-            }
-            
-            return texts;
-            
-        } catch (ParserConfigurationException | SAXException | IOException ex) {
+        try (ProcessedExportTextIterator texts = new ProcessedExportTextIterator(filename)) {
+            ArrayList<String> list = new ArrayList<>();
+            texts.forEachRemaining(list::add);
+            return list;
+        } catch (IOException | UncheckedIOException ex) {
             System.err.println("ERR @ getTextsFromProcessedExport: " + ex.toString());
         }
         return null;
     }
     
+    /**
+     * Streams the paragraphs of a processed export (xml or binary), which are
+     * read lazily as the stream is consumed, so the first paragraphs can be
+     * used while the rest of the file has not been read yet, and only about a
+     * page of the file is held in memory. The stream must be closed, and read
+     * errors are thrown from it as UncheckedIOExceptions.
+     * 
+     * @param filename
+     * @return the paragraphs, or an empty stream if the file could not be opened
+     */
+    public Stream<String> streamTextsFromProcessedExport(String filename) {
+        try {
+            ProcessedExportTextIterator texts = new ProcessedExportTextIterator(filename);
+            Spliterator<String> split = Spliterators.spliteratorUnknownSize(texts,
+                    Spliterator.ORDERED | Spliterator.NONNULL);
+            return StreamSupport.stream(split, false).onClose(() -> {
+                try {
+                    texts.close();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (IOException ex) {
+            System.err.println("ERR @ streamTextsFromProcessedExport: " + ex.toString());
+        }
+        return Stream.empty();
+    }
+    
     /**
      * 
      * @param toProcess
      * @return 
      */
     public ArrayList<String> processStringForParagraphs(String toProcess) {
-        return getDifferentParagraphs(toProcess.toCharArray());
+        TOKENIZER.tokenize(toProcess.toCharArray());
+        return TOKENIZER.getTexts();
     }
     
     /**
+     * Sets the number of threads that extract the categories, anchors and the
+     * paragraphs of the pages. With more than one, the export is converted by a
+     * pipeline: one thread reads the export, the workers extract the pages, and
+     * the processed pages are written by the calling thread.
      * 
-     * @param export
-     * @param xml 
+     * @param workers number of extraction threads, one by default
      */
-    public void convertSpecialExport(String export, String xml) {
-        Document document = importSpecialExport(export);
-        saveDocumentAsXML(document, xml);
+    public void setWorkerCount(int workers) {
+        workerCount = Math.max(1, workers);
     }
     
     /**
+     * Sets whether the pipeline writes the processed pages in the same order as
+     * the export (the default), or as soon as the workers have finished them.
      * 
-     * @param filename
-     * @return 
+     * @param ordered false to let the pipeline write the pages out of order
      */
-    private Document importSpecialExport(String filename) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(filename);
-            //
-            NodeList nodes = document.getElementsByTagName("page");
-            ArrayList<WikiPage> wikis = processPageNodeList(nodes);
-            //
-            Document processed = makeDocumentFromWikis(wikis);
-            return processed;
-            //
-        } catch (ParserConfigurationException | SAXException | IOException ex) {
-            System.err.println("ERR @ importSpecialExport: " + ex.getMessage());
-        }
-        return null;
+    public void setOrderedOutput(boolean ordered) {
+        orderedOutput = ordered;
     }
     
     /**
+     * Sets whether only the lead section (the text before the first heading) of
+     * each page is processed, which is the part of an article the project uses
+     * to classify it. The rest of the text of a page is skipped while reading,
+     * so it never has to be copied or scanned. Note that the categories of an
+     * article are at its end, so in this mode the categories are left empty.
      * 
-     * @param nodelist
-     * @return 
+     * @param leadOnly true to process only the lead sections of the pages
      */
-    private ArrayList<WikiPage> processPageNodeList(NodeList nodelist) {
-        
-        ArrayList<WikiPage> wikis = new ArrayList<>(nodelist.getLength());
-        for (int i = 0; i < nodelist.getLength(); i++) {
-            //
-            Element page = (Element) nodelist.item(i);
-            //
-            String title = page.getElementsByTagName("title").item(0).getTextContent().trim();
-            char[] chars = page.getElementsByTagName("text").item(0).getTextContent().toCharArray();
-            //
-            ArrayList<String> categories = parseTextByType(chars, "categories");
-            ArrayList<String> anchors = parseTextByType(chars, "anchors");
-            //
-            ArrayList<String> texts = getDifferentParagraphs(chars);
-            //
-            WikiPage wikipage = new WikiPage();
-            wikipage.categories = categories;
-            wikipage.anchors = anchors;
-            wikipage.title = title;
-            wikipage.texts = texts;
-            //
-            wikis.add(wikipage);
-        }
-        return wikis;
+    public void setLeadSectionOnly(boolean leadOnly) {
+        leadSectionOnly = leadOnly;
     }
-
-    private ArrayList<String> getDifferentParagraphs(char[] symbols) {
-
-        ArrayList<String> texts = new ArrayList<>();
-        StringBuilder sb = new StringBuilder();
-        int braceCount = 0;
-        int equalCount = 0;
-        char current;
-
-        for (int i = 0; i < symbols.length - 1; i++) {
-            current = symbols[i];
-            if (current == '{') braceCount++;
-            if (current == '}') braceCount--;
-            if (braceCount > 0) continue;
-            if (current == '=') equalCount++;
-            if (equalCount == 4) {
-                String norml = normalizeWikiPageTextForPOSTagging(sb.toString().toCharArray());
-                texts.add(norml);
-                sb = new StringBuilder();
-                equalCount = 0;
-            }
-            boolean letter = Character.isAlphabetic(current);
-            boolean white = Character.isWhitespace(current);
-            boolean digit = Character.isDigit(current);
-            if (letter || digit) {
-                sb.append(current);
-            } else if (white) {
-                sb.append(' ');
-            }
-        }
-        return texts;
+    
+    /**
+     * Sets the filter deciding which pages of the export are processed, for
+     * example SpecialExportPageFilter.articlesOnly() to drop the talk pages,
+     * templates, redirects and such. The dropped pages are skipped over by the
+     * reader before their text is read. Null (the default) processes all pages.
+     * 
+     * @param filter the page filter, or null
+     */
+    public void setPageFilter(SpecialExportPageFilter filter) {
+        pageFilter = filter;
     }
     
-    private String normalizeWikiPageTextForPOSTagging(char[] symbols) {
-
-        StringBuilder sb = new StringBuilder();
-        int braceCount = 0;
-        char current, next;
-
-        for (int i = 0; i < symbols.length - 1; i++) {
-            next = symbols[i + 1];  // hence length - 1
-            current = symbols[i];
-            if (current == '=' && next == '=') break;
-            if (current == '{') braceCount++;
-            if (current == '}') braceCount--;
-            if (braceCount > 0) continue;
-            boolean letter = Character.isAlphabetic(current);
-            boolean white = Character.isWhitespace(current);
-            boolean digit = Character.isDigit(current);
-            if (letter || digit) {
-                sb.append(current);
-            } else if (white) {
-                sb.append(' ');
-            }
-        }
-        return sb.toString();
+    /**
+     * Sets the offset index ("offset:pageid:title" lines, plain or bz2) of the
+     * multistream bz2 export about to be converted, so that the independent
+     * bz2 streams of the export are decompressed by several threads at once.
+     * Plain, gzip and (single threaded) bzip2 exports need no index, and null
+     * clears the index again.
+     * 
+     * @param index path to the index of the multistream export
+     * @param threads number of threads decompressing streams of the export
+     */
+    public void setMultistreamIndex(String index, int threads) {
+        multistreamIndex = index;
+        decompressorCount = Math.max(1, threads);
     }
-
+    
     /**
+     * Sets how often a conversion saves a checkpoint (next to its output), so
+     * that a conversion of a full dump that dies part way through continues
+     * from its last checkpoint when it is started again, instead of from the
+     * first page. The checkpoint is removed once the conversion completes.
+     * While checkpointing, the pipeline always writes the pages in order.
      * 
-     * @param symbols
-     * @param type
-     * @return 
+     * @param pages pages written between checkpoints, zero (default) for none
      */
-    private ArrayList<String> parseTextByType(char[] symbols, String type) {
-
-        ArrayList<String> list = new ArrayList<>();
-        StringBuilder sb = null;
-        boolean reading = false;
-        int braceCount = 0;
-        char current, next;
-
-        for (int i = 0; i < symbols.length - 1; i++) {
-            next = symbols[i + 1];  // hence length - 1
-            current = symbols[i];
-            if (current == '{' && !reading) braceCount++;
-            if (current == '}' && !reading) braceCount--;
-            if (braceCount > 0) continue;
-            if (current == '[' && next == '[') {
-                sb = new StringBuilder();
-                reading = true;
-                i++; // step over second brace
-            } else if (current == ']' && next == ']') {
-                String parsedTerm = parseTermByType(sb.toString(), type);
-                if (!parsedTerm.isEmpty()) list.add(parsedTerm);
-                reading = false;
-                i++; // step over second brace
-            } else if (reading) {
-                sb.append(current);
-            }
-        }
-        return list;
+    public void setCheckpointInterval(int pages) {
+        checkpointInterval = Math.max(0, pages);
     }
-
+    
     /**
+     * Returns the throughput of the most recent conversion in pages per second.
      * 
-     * @param term
-     * @param type
      * @return 
      */
-    private String parseTermByType(String term, String type) {
-
-        String prefix = "Category:";
-        switch (type) {
-            case "categories":
-                if (term.startsWith("Category:")) {
-                    return term.substring("Category:".length());
+    public double getLastPagesPerSecond() {
+        return lastPagesPerSecond;
+    }
+    
+    /**
+     * Converts the special export into a processed export, each page is read,
+     * processed, and written out before the next page is read from the export,
+     * or by the multi-core pipeline when more than one worker has been set.
+     * With a checkpoint interval set, a conversion that was interrupted is
+     * continued from its checkpoint. An output name ending in BINARY_EXTENSION
+     * is written in the binary format (see ProcessedExportFile) instead of xml.
+     * 
+     * @param export
+     * @param xml 
+     */
+    public void convertSpecialExport(String export, String xml) {
+        long start = System.nanoTime();
+        long pages = 0;
+        long skipped = 0;
+        ConversionCheckpoint resume = null;
+        if (checkpointInterval > 0) resume = ConversionCheckpoint.load(xml, export);
+        long resumeAt = (resume == null) ? -1 : resume.outputLength;
+        try (SpecialExportPageReader reader = openSpecialExport(export);
+                ProcessedExportOutput writer = openProcessedExport(xml, resumeAt)) {
+            PageWriter sink = new PageWriter(writer, xml);
+            if (checkpointInterval > 0) {
+                sink.checkpoint = (resume == null) ? newCheckpoint(export) : resume;
+            }
+            if (resume != null) {
+                reader.skipPages(resume.pagesRead);
+                System.err.println("Resuming conversion after " + resume.pagesWritten
+                        + " pages, the last one was: " + resume.lastTitle);
+            }
+            if (workerCount > 1) {
+                boolean ordered = orderedOutput || checkpointInterval > 0;
+                SpecialExportPipeline pipeline = new SpecialExportPipeline(workerCount, ordered);
+                pipeline.run(reader, sink);
+            } else {
+                SpecialExportPageReader.RawPage raw;
+                while ((raw = reader.nextPage()) != null) {
+                    sink.write(processPage(TOKENIZER, raw), raw.ordinal);
                 }
-                break;
-            case "anchors":
-                if (term.startsWith(prefix)) return "";
-                int bar = term.indexOf('|');
-                if (bar > 0) {
-                    return term.substring(0, bar);
-                } else {
-                    return term.substring(0);
             }
+            pages = sink.pages;
+            skipped = reader.getSkippedPages();
+        } catch (XMLStreamException | IOException ex) {
+            System.err.println("ERR @ convertSpecialExport: " + ex.getMessage());
+            return;
         }
-        return "";
+        if (checkpointInterval > 0) ConversionCheckpoint.delete(xml);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        lastPagesPerSecond = pages / seconds;
+        System.err.println(String.format("Converted %d pages in %.2f s (%.1f pages/sec, %d %s)",
+                pages, seconds, lastPagesPerSecond, workerCount,
+                workerCount == 1 ? "worker" : "workers"));
+        if (skipped > 0) System.err.println("Skipped " + skipped + " pages (page filter)");
     }
     
     /**
-     * 
-     * @param wikilist
-     * @return 
+     * Writes the processed pages, and saves a checkpoint every interval pages.
      */
-    private Document makeDocumentFromWikis(ArrayList<WikiPage> wikilist) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.newDocument();
-            //
-            Element root = document.createElement("ProcessedSpecialExportData");
-            document.appendChild(root);
-            //
-            for (WikiPage wikipage : wikilist) {
-                Element page = document.createElement("page");
-                root.appendChild(page);
-                //
-                Element title = document.createElement("title");
-                title.appendChild(document.createTextNode(wikipage.title));
-                page.appendChild(title);
-                //
-                for (String p : wikipage.texts) {
-                    Element text = document.createElement("text");
-                    text.appendChild(document.createTextNode(p));
-                    page.appendChild(text);
-                }
-                //
-                Element categories = document.createElement("categories");
-                String cat_Text = stringifyList(wikipage.categories);
-                categories.appendChild(document.createTextNode(cat_Text));
-                page.appendChild(categories);
-                //
-                Element anchors = document.createElement("anchors");
-                String anc_Text = stringifyList(wikipage.anchors);
-                anchors.appendChild(document.createTextNode(anc_Text));
-                page.appendChild(anchors);
-                //
+    private class PageWriter implements SpecialExportPipeline.PageSink {
+        private final ProcessedExportOutput writer;
+        private final String output;
+        private ConversionCheckpoint checkpoint; // null when not checkpointing
+        private long pages;
+        
+        PageWriter(ProcessedExportOutput writer, String output) {
+            this.writer = writer;
+            this.output = output;
+        }
+        
+        @Override
+        public void write(WikiPage page, long ordinal) throws XMLStreamException, IOException {
+            writer.writePage(page.title, page.texts, page.categories, page.anchors);
+            pages++;
+            if (checkpoint == null) return;
+            // pages are written in order, so every page up to this one is done
+            checkpoint.pagesRead = ordinal + 1;
+            checkpoint.pagesWritten++;
+            checkpoint.lastTitle = page.title;
+            if (pages % checkpointInterval == 0) {
+                checkpoint.outputLength = writer.checkpoint();
+                checkpoint.save(output);
             }
-            return document;
-        } catch (ParserConfigurationException ex) {
-            System.err.println("ParserConfigurationException: " + ex.getMessage());
         }
-        return null;
+    }
+    
+    private static ConversionCheckpoint newCheckpoint(String export) {
+        ConversionCheckpoint checkpoint = new ConversionCheckpoint();
+        checkpoint.export = export;
+        checkpoint.exportLength = new File(export).length();
+        return checkpoint;
     }
     
     /**
+     * Opens the processed export for writing, binary or xml by its extension.
      * 
-     * @param list
+     * @param output
+     * @param resumeAt
      * @return 
      */
-    private String stringifyList(ArrayList<String> list) {
-        StringBuilder sb = new StringBuilder();
-        for (String s : list) {
-            sb.append(' ');
-            sb.append(s);
+    private static ProcessedExportOutput openProcessedExport(String output, long resumeAt)
+            throws IOException, XMLStreamException {
+        if (output.endsWith(BINARY_EXTENSION)) {
+            return new ProcessedExportBinaryWriter(output, resumeAt);
         }
-        return sb.toString();
+        return new ProcessedExportWriter(output, resumeAt);
     }
     
     /**
+     * Opens the export for reading, through the multistream index when set.
      * 
-     * @param document
-     * @param filename 
+     * @param export
+     * @return 
      */
-    private void saveDocumentAsXML(Document document, String filename) {
-        try {
-            TransformerFactory factory = TransformerFactory.newInstance();
-            Transformer transformer = factory.newTransformer();
-            DOMSource source = new DOMSource(document);
-            File xmlFile = new File(filename);
-            StreamResult result = new StreamResult(xmlFile);
-            transformer.transform(source, result);
-        } catch (TransformerConfigurationException ex) {
-            System.err.println("TransformerConfigurationException: " + ex.getMessage());
-        } catch (TransformerException ex) {
-            System.err.println("TransformerException: " + ex.getMessage());
+    private SpecialExportPageReader openSpecialExport(String export)
+            throws IOException, XMLStreamException {
+        SpecialExportPageReader reader;
+        if (multistreamIndex == null) {
+            reader = new SpecialExportPageReader(export); // plain, gz or bz2
+        } else {
+            reader = new SpecialExportPageReader(new MultistreamBZip2InputStream(
+                    export, multistreamIndex, decompressorCount));
         }
+        reader.setLeadSectionOnly(leadSectionOnly);
+        reader.setPageFilter(pageFilter);
+        return reader;
+    }
+    
+    /**
+     * Extracts the categories, anchors and paragraphs of a raw export page.
+     * 
+     * @param tokenizer the tokenizer of the calling thread
+     * @param raw the page as it was read from the export
+     * @return 
+     */
+    static WikiPage processPage(WikitextTokenizer tokenizer, SpecialExportPageReader.RawPage raw) {
+        //
+        tokenizer.tokenize(raw.text, raw.leadSection); // all in one pass
+        //
+        WikiPage wikipage = new WikiPage();
+        wikipage.categories = tokenizer.getCategories();
+        wikipage.anchors = tokenizer.getAnchors();
+        wikipage.title = raw.title;
+        wikipage.texts = tokenizer.getTexts();
+        //
+        return wikipage;
     }
 }
\ No newline at end of file
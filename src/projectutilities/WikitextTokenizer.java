@@ -0,0 +1,208 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.ArrayList;
+
+/**
+ * WikitextTokenizer - a single pass lexer for the wikitext of an export page.
+ * 
+ * The categories, the anchors, and the normalized paragraphs of a page are all
+ * produced in the same sweep over the text. Two independent state machines are
+ * advanced for each symbol, one for the [[...]] links and one for the == section
+ * boundaries, each with its own brace depth (the link machine does not count
+ * braces inside of a link, the paragraph machine always does).
+ * 
+ * A tokenizer is not thread safe, but it can be reused for any number of pages.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class WikitextTokenizer {
+    /**
+     * Character classes of the ASCII range, so that the common case does not
+     * need to call into Character.isAlphabetic/isDigit/isWhitespace per char.
+     */
+    private static final byte OTHER = 0;
+    private static final byte KEEP = 1;     // letter or digit, kept as is
+    private static final byte WHITE = 2;    // whitespace, kept as a space
+    private static final byte[] ASCII = new byte[128];
+    static {
+        for (char c = 0; c < 128; c++) {
+            if (Character.isAlphabetic(c) || Character.isDigit(c)) {
+                ASCII[c] = KEEP;
+            } else if (Character.isWhitespace(c)) {
+                ASCII[c] = WHITE;
+            }
+        }
+    }
+
+    private static final String CATEGORY = "Category:";
+
+    private final StringBuilder paragraph = new StringBuilder();
+    private final StringBuilder link = new StringBuilder();
+
+    private ArrayList<String> categories;
+    private ArrayList<String> anchors;
+    private ArrayList<String> texts;
+
+    // state of the paragraph machine
+    private int textBraces;
+    private int equalCount;
+
+    /**
+     * Tokenizes the given symbols, the results of which are then available from
+     * getCategories(), getAnchors() and getTexts() until the next call.
+     * 
+     * @param symbols the raw wikitext of the page
+     */
+    void tokenize(char[] symbols) {
+        tokenize(symbols, false);
+    }
+
+    /**
+     * Tokenizes the given symbols, the results of which are then available from
+     * getCategories(), getAnchors() and getTexts() until the next call.
+     * 
+     * Paragraphs end at == section boundaries, so the text after the last one
+     * is normally dropped. When the symbols have been cut short (the lead section
+     * of a page, which is followed by a heading that was never read) the rest of
+     * the text is kept as the last paragraph instead.
+     * 
+     * @param symbols the raw wikitext of the page
+     * @param keepLast true to keep the text after the last section boundary
+     */
+    void tokenize(char[] symbols, boolean keepLast) {
+        categories = new ArrayList<>();
+        anchors = new ArrayList<>();
+        texts = new ArrayList<>();
+        paragraph.setLength(0);
+        link.setLength(0);
+        textBraces = 0;
+        equalCount = 0;
+        //
+        boolean linkStarted = false;    // has there been a [[ yet
+        boolean reading = false;        // is the link machine inside of [[...]]
+        boolean skipNext = false;       // the link machine consumed two symbols
+        int linkBraces = 0;
+        char current, next;
+        //
+        for (int i = 0; i < symbols.length - 1; i++) {
+            current = symbols[i];
+            next = symbols[i + 1];  // hence length - 1
+            //
+            // [[...]] links: categories and anchors
+            if (skipNext) {
+                skipNext = false;
+            } else {
+                if (!reading) {
+                    if (current == '{') linkBraces++;
+                    if (current == '}') linkBraces--;
+                }
+                if (linkBraces <= 0) {
+                    if (current == '[' && next == '[') {
+                        link.setLength(0);
+                        linkStarted = true;
+                        reading = true;
+                        skipNext = true;
+                    } else if (current == ']' && next == ']') {
+                        if (linkStarted) addLink();
+                        reading = false;
+                        skipNext = true;
+                    } else if (reading) {
+                        link.append(current);
+                    }
+                }
+            }
+            //
+            // == section boundaries: normalized paragraphs
+            textSymbol(current);
+        }
+        if (keepLast) {
+            if (symbols.length > 0) textSymbol(symbols[symbols.length - 1]);
+            if (paragraph.length() > 0) texts.add(paragraph.toString());
+        }
+    }
+
+    /**
+     * Advances the paragraph machine by one symbol.
+     */
+    private void textSymbol(char current) {
+        if (current == '{') textBraces++;
+        if (current == '}') textBraces--;
+        if (textBraces > 0) return;
+        if (current == '=' && ++equalCount == 4) {
+            addParagraph();
+            equalCount = 0;
+            return;
+        }
+        if (current < 128) {
+            byte type = ASCII[current];
+            if (type == KEEP) {
+                paragraph.append(current);
+            } else if (type == WHITE) {
+                paragraph.append(' ');
+            }
+        } else if (Character.isAlphabetic(current) || Character.isDigit(current)) {
+            paragraph.append(current);
+        } else if (Character.isWhitespace(current)) {
+            paragraph.append(' ');
+        }
+    }
+
+    /**
+     * The text of a link is a category when it carries the category prefix, and
+     * otherwise an anchor, which is the link target before any '|' in the link.
+     */
+    private void addLink() {
+        int length = link.length();
+        if (startsWithCategory()) {
+            if (length > CATEGORY.length()) {
+                categories.add(link.substring(CATEGORY.length()));
+            }
+        } else if (length > 0) {
+            int bar = link.indexOf("|");
+            anchors.add(bar > 0 ? link.substring(0, bar) : link.toString());
+        }
+    }
+
+    private boolean startsWithCategory() {
+        if (link.length() < CATEGORY.length()) return false;
+        for (int i = 0; i < CATEGORY.length(); i++) {
+            if (link.charAt(i) != CATEGORY.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The last symbol of each paragraph is dropped, matching the paragraphs of
+     * the processed exports that have already been written.
+     */
+    private void addParagraph() {
+        int length = Math.max(paragraph.length() - 1, 0);
+        texts.add(paragraph.substring(0, length));
+        paragraph.setLength(0);
+    }
+
+    ArrayList<String> getCategories() { return categories; }
+
+    ArrayList<String> getAnchors() { return anchors; }
+
+    ArrayList<String> getTexts() { return texts; }
+}